@@ -0,0 +1,119 @@
+package messages;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Micro-benchmark comparing the String based header parser the peers used to have with the in-place
+ * {@link Message#fromDatagramPacket(ByteBuffer)}, on PUTCHUNK (full body) and STORED (header only) packets
+ * <p>
+ * Kept out of the peer's sources so it doesn't ship with it, from <code>proj1/src</code> once the peer is built:
+ * <code>javac -cp build -d ../bench/build ../bench/messages/*.java</code> and
+ * <code>java -cp build:../bench/build messages.HeaderParserBenchmark [iterations]</code>. Every parser is warmed up
+ * before being measured and the parsed messages are folded into a checksum so the JIT can't drop the work.
+ * </p>
+ */
+public final class HeaderParserBenchmark {
+    private static final String FILE_ID = "2f7a3c9e41d0b8a6c5e2f19d7b3a8c60e4d1f2a9b7c6e5d4c3b2a1908f7e6d5c";
+    private static final int ROUNDS = 5;
+
+    private static long checksum = 0;
+
+    private HeaderParserBenchmark() {
+    }
+
+    //! Not documented
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+
+        byte[] body = new byte[64000];
+        Arrays.fill(body, (byte) 'x');
+        byte[] putchunk = encode(new PutchunkMessage("2.0", 1, FILE_ID, 42, 3, body), body);
+        byte[] stored = encode(new StoredMessage("2.0", 2, FILE_ID, 42), new byte[0]);
+
+        run("PUTCHUNK", putchunk, iterations / 10);
+        run("STORED", stored, iterations);
+        System.out.printf("[BENCHMARK] checksum %d\n", checksum);
+    }
+
+    /**
+     * Helper to measure both parsers on the same packet, the best round of each is reported
+     */
+    private static void run(String name, byte[] packet, int iterations) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(packet);
+        // warm up
+        legacy(packet, iterations);
+        inPlace(buffer, iterations);
+
+        long legacyBest = Long.MAX_VALUE, inPlaceBest = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            legacyBest = Math.min(legacyBest, legacy(packet, iterations));
+            inPlaceBest = Math.min(inPlaceBest, inPlace(buffer, iterations));
+        }
+        System.out.printf("[BENCHMARK] %-8s split: %8.1f ns/op  in-place: %8.1f ns/op  (%.1fx)\n", name,
+                (double) legacyBest / iterations, (double) inPlaceBest / iterations, (double) legacyBest / inPlaceBest);
+    }
+
+    /**
+     * @return Time taken to parse the packet <code>iterations</code> times with the String parser, in ns
+     */
+    private static long legacy(byte[] packet, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Message message = legacyParse(packet, packet.length);
+            checksum += message.getChunkNo() + message.getBodyLength();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return Time taken to parse the packet <code>iterations</code> times with the in-place parser, in ns
+     */
+    private static long inPlace(ByteBuffer packet, int iterations) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            Message message = Message.fromDatagramPacket(packet.duplicate());
+            checksum += message.getChunkNo() + message.getBodyLength();
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Helper to build a packet the same way the multicast service does, the header followed by the body
+     */
+    private static byte[] encode(Message message, byte[] body) {
+        ByteBuffer out = ByteBuffer.allocate(1024 + body.length);
+        message.encodeHeader(out);
+        out.put(body);
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    /**
+     * The parser as it was before the headers were read in place: the whole packet decoded to a String, split on
+     * the CRLFCRLF, the spaces collapsed with a regex, split again and the body copied out of the packet
+     */
+    private static Message legacyParse(byte[] packet, int packetLength) throws Exception {
+        String packetData = new String(packet);
+        packetData = packetData.substring(0, Math.min(packetLength, packetData.length()));
+        String[] parts = packetData.split("\r\n\r\n", 2);
+
+        int headerBytes = parts[0].length();
+        parts[0] = parts[0].replaceAll("^ +| +$|( )+", "$1").trim();
+
+        String[] args = parts[0].split(" ");
+        String version = args[0];
+        String type = args[1];
+        int senderId = Integer.parseInt(args[2]);
+        byte[] body = new byte[0];
+        if (parts.length == 2) body = Arrays.copyOfRange(packet, headerBytes + 4, packetLength);
+
+        switch (type) {
+            case "PUTCHUNK":
+                return new PutchunkMessage(version, senderId, args[3], Integer.parseInt(args[4]), Integer.parseInt(args[5]), body);
+            case "STORED":
+                return new StoredMessage(version, senderId, args[3], Integer.parseInt(args[4]));
+            default:
+                throw new Exception("COULD NOT PARSE MESSAGE PACKET");
+        }
+    }
+}
@@ -28,6 +28,8 @@ mdr_port=$9
 # Execute the program
 # Should not need to change anything but the class and its package, unless you use any jar file
 
+# JVM options can be passed on PEER_OPTS, e.g. PEER_OPTS=-Dpeer.virtualThreads=true (Java 21+)
+
 # echo "java peer.Peer ${ver} ${id} ${sap} ${mc_addr} ${mc_port} ${mdb_addr} ${mdb_port} ${mdr_addr} ${mdr_port}"
 
-java peer.Peer ${ver} ${id} ${sap} ${mc_addr} ${mc_port} ${mdb_addr} ${mdb_port} ${mdr_addr} ${mdr_port}
+java ${PEER_OPTS} peer.Peer ${ver} ${id} ${sap} ${mc_addr} ${mc_port} ${mdb_addr} ${mdb_port} ${mdr_addr} ${mdr_port}
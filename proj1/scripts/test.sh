@@ -24,12 +24,13 @@ oper=$2
 
 case $oper in
 BACKUP)
-  if [ "$#" -ne 4 ]; then
-    echo "Usage: $0 <peer_ap> BACKUP <filename> <rep degree>"
+  if [ "$#" -ne 4 ] && [ "$#" -ne 5 ]; then
+    echo "Usage: $0 <peer_ap> BACKUP <filename> <rep degree> [COMPRESS]"
     exit 1
   fi
   opernd_1=$3
   rep_deg=$4
+  compress=$5
   ;;
 RESTORE)
   if [ "$#" -ne 3 ]; then
@@ -71,6 +72,6 @@ esac
 # Execute the program
 # Should not need to change anything but the class and its package, unless you use any jar file
 
-# echo "java test.TestApp ${pap} ${oper} ${opernd_1} ${rep_deg}"
+# echo "java test.TestApp ${pap} ${oper} ${opernd_1} ${rep_deg} ${compress}"
 
-java client.TestApp ${pap} ${oper} ${opernd_1} ${rep_deg}
+java client.TestApp ${pap} ${oper} ${opernd_1} ${rep_deg} ${compress}
@@ -13,6 +13,7 @@ import java.rmi.RemoteException;
 public class BackupOperation extends Operation {
     private final String pathname;
     private final int replicationDegree;
+    private final boolean compress;
 
     /**
      * Backup Operation Constructor
@@ -20,16 +21,18 @@ public class BackupOperation extends Operation {
      * @param stub              Initiator Peer stub
      * @param pathname          File path to be backed up
      * @param replicationDegree Desired replication degree
+     * @param compress          <code>true</code> to compress the file's chunks before sending them
      */
-    public BackupOperation(InitiatorPeer stub, String pathname, int replicationDegree) {
+    public BackupOperation(InitiatorPeer stub, String pathname, int replicationDegree, boolean compress) {
         super(stub);
         this.pathname = pathname;
         this.replicationDegree = replicationDegree;
+        this.compress = compress;
     }
 
     @Override
     public void start() throws RemoteException {
         System.out.println("Started a Backup Operation");
-        this.stub.backup(this.pathname, this.replicationDegree);
+        System.out.println(this.stub.backup(this.pathname, this.replicationDegree, this.compress));
     }
 }
@@ -32,7 +32,7 @@ public abstract class Operation {
     public static Operation createOperation(InitiatorPeer stub, String[] args) throws Exception {
         switch (args[1]) {
             case "BACKUP":
-                return new BackupOperation(stub, args[2], Integer.parseInt(args[3]));
+                return new BackupOperation(stub, args[2], Integer.parseInt(args[3]), args.length > 4 && args[4].equals("COMPRESS"));
             case "RESTORE":
                 return new RestoreOperation(stub, args[2]);
             case "DELETE":
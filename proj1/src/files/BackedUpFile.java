@@ -1,51 +1,98 @@
 package files;
 
-import java.io.FileInputStream;
+import peer.Constants;
+
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is responsible to store some info about a file which will be useful
- * during the backup of said file. Also contains a stream so we can read the file
- * in chunks of 64KB.
+ * during the backup of said file. The file is memory-mapped so we can hand out its
+ * chunks of 64KB without reading them into the heap.
+ * <p>
+ * Each chunk is a read-only slice of the mapping, it can be sent straight to a channel and the data is only
+ * paged in by the OS when it's actually sent. Files bigger than what a single mapping can hold are mapped
+ * in regions, one region at a time.
+ * </p>
+ * <p>
+ * The chunks are sent long after they're handed out, so the file is only closed once the backup is over. The file
+ * must not be truncated meanwhile: reading a chunk whose pages are no longer on the file makes the OS raise a
+ * SIGBUS, which the JVM reports as an <code>InternalError</code> at best and crashes on at worst.
+ * </p>
  */
-public class BackedUpFile {
+public class BackedUpFile implements Closeable {
+    // chunks per mapped region, so a region always ends on a chunk boundary (~1GB)
+    private static final long REGION_SIZE = (long) Constants.CHUNK_SIZE * 16384;
+
     private final String fileID;
     private final String pathname;
-    private final InputStream chunkStream;
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer region;
+    // every region mapped, kept until the file is closed since their chunks may still be waiting to be sent
+    private final List<MappedByteBuffer> regions = new ArrayList<>();
+    private long regionStart = 0;
+    private long position = 0;
 
     /**
-     * This constructor creates a new input stream and also defines the unique file ID for
+     * This constructor opens the file to be mapped and also defines the unique file ID for
      * this file
      *
      * @param pathname File's pathname to be backed up
-     * @throws IOException On error creating the file ID or the FileInputStream
+     * @throws IOException On error creating the file ID or opening the file
      * @see IOUtils
      */
     public BackedUpFile(String pathname) throws IOException {
         this.pathname = pathname;
-        this.chunkStream = new FileInputStream(pathname);
         this.fileID = IOUtils.getFileId(pathname);
+        this.channel = FileChannel.open(Paths.get(pathname), StandardOpenOption.READ);
+        this.fileSize = this.channel.size();
     }
 
     /**
      * Method to get the next chunk available, or null otherwise this is helpful as
-     * we don't want to read a 64GB file into RAM, so we read chunk by chunk
+     * we don't want to read a 64GB file into RAM, so we map it region by region
      *
-     * @return The byte array containing the chunk data or null if there is no more data
-     * @throws IOException On error reading the file from the stream
+     * @return A read-only buffer with the chunk data or null if there is no more data
+     * @throws IOException On error mapping the file
      */
-    public byte[] getNextChunk() throws IOException {
-        byte[] myBuffer = new byte[64000];
-        // the size in bytes is the length of the chunk / 2
-        int size;
-        if ((size = this.chunkStream.read(myBuffer, 0, 64000)) != -1) {
-            return Arrays.copyOfRange(myBuffer, 0, size);
+    public ByteBuffer getNextChunk() throws IOException {
+        if (this.position >= this.fileSize) return null;
+
+        if (this.region == null || this.position >= this.regionStart + this.region.capacity()) {
+            this.regionStart = this.position;
+            this.region = this.channel.map(FileChannel.MapMode.READ_ONLY, this.regionStart,
+                    Math.min(REGION_SIZE, this.fileSize - this.regionStart));
+            this.regions.add(this.region);
         }
 
-        chunkStream.close();
-        return null;
+        int offset = (int) (this.position - this.regionStart);
+        int length = Math.min(Constants.CHUNK_SIZE, this.region.capacity() - offset);
+        this.position += length;
+
+        ByteBuffer chunk = this.region.duplicate();
+        chunk.position(offset).limit(offset + length);
+        return chunk.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Method to close the file once the backup is over (every chunk sent or given up on), the regions are released
+     * to be unmapped
+     *
+     * @throws IOException On error closing the file
+     */
+    @Override
+    public void close() throws IOException {
+        this.region = null;
+        this.regions.clear();
+        this.channel.close();
     }
 
     /**
@@ -1,6 +1,7 @@
 package files;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,13 +17,14 @@ import java.util.concurrent.ConcurrentHashMap;
  * @see SavedChunk
  */
 public abstract class Chunk implements Serializable {
-    protected String fileId;
-    protected int chunkNo;
+    protected final ChunkKey key;
     protected int replicationDegree;
     protected final Set<Integer> peers;
     protected transient byte[] body;
+    private transient ByteBuffer source;
     protected boolean receivedPutchunk = false;
     private boolean stored = false;
+    private boolean compressed = false;
     private double size = 0;
 
     /**
@@ -48,8 +50,7 @@ public abstract class Chunk implements Serializable {
      * @param chunkNo Chunk's sequential number
      */
     public Chunk(String fileId, int chunkNo) {
-        this.fileId = fileId;
-        this.chunkNo = chunkNo;
+        this.key = ChunkKey.of(fileId, chunkNo);
         this.replicationDegree = 0;
         this.peers = ConcurrentHashMap.newKeySet();
     }
@@ -63,8 +64,7 @@ public abstract class Chunk implements Serializable {
      * @param body              Chunk's Body
      */
     public Chunk(String fileId, int chunkNo, int replicationDegree, byte[] body) {
-        this.fileId = fileId;
-        this.chunkNo = chunkNo;
+        this.key = ChunkKey.of(fileId, chunkNo);
         this.replicationDegree = replicationDegree;
         this.peers = ConcurrentHashMap.newKeySet();
         this.body = body;
@@ -78,8 +78,7 @@ public abstract class Chunk implements Serializable {
      * @param replicationDegree Chunk's Desired Replication Degree
      */
     public Chunk(String fileId, int chunkNo, int replicationDegree) {
-        this.fileId = fileId;
-        this.chunkNo = chunkNo;
+        this.key = ChunkKey.of(fileId, chunkNo);
         this.replicationDegree = replicationDegree;
         this.peers = ConcurrentHashMap.newKeySet();
     }
@@ -95,7 +94,7 @@ public abstract class Chunk implements Serializable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Chunk chunk = (Chunk) o;
-        return chunkNo == chunk.chunkNo && Objects.equals(fileId, chunk.fileId);
+        return Objects.equals(key, chunk.key);
     }
 
     /**
@@ -117,6 +116,36 @@ public abstract class Chunk implements Serializable {
         return body;
     }
 
+    /**
+     * Method to set the data to be sent for this chunk without copying it into the heap, usually a slice of a
+     * memory-mapped file or a body on the chunk cache
+     *
+     * @param source Read-only buffer with the chunk's data
+     * @see BackedUpFile#getNextChunk()
+     * @see peer.ChunkCache
+     */
+    public void setSource(ByteBuffer source) {
+        this.source = source;
+        this.setSize(source.remaining());
+    }
+
+    /**
+     * Method to drop the data being sent, once it's no longer needed
+     */
+    public void releaseSource() {
+        this.source = null;
+    }
+
+    /**
+     * @return A buffer with this chunk's data, ready to be sent (the source if there's one, otherwise the body), or
+     * <code>null</code> if there's no data
+     */
+    public ByteBuffer getBodyBuffer() {
+        ByteBuffer source = this.source;
+        if (source != null) return source.duplicate();
+        return body == null ? null : ByteBuffer.wrap(body);
+    }
+
     /**
      * Method to clear the body, we don't always need to keep the data in cache, so
      * we set the body to <code>null</code>
@@ -127,30 +156,38 @@ public abstract class Chunk implements Serializable {
 
     @Override
     public int hashCode() {
-        return Objects.hash(fileId, chunkNo);
+        return key.hashCode();
     }
 
     /**
      * @return This Chunk's sequential number
      */
     public int getChunkNo() {
-        return chunkNo;
+        return key.getChunkNo();
     }
 
     /**
      * @return This Chunk's File ID
      */
     public String getFileId() {
-        return fileId;
+        return key.getFileId();
     }
 
     /**
-     * The Chunk ID is represented with fileID_chunkNo
+     * @return This Chunk's key on the chunks maps
+     */
+    public ChunkKey getKey() {
+        return key;
+    }
+
+    /**
+     * The Chunk ID is represented with fileID_chunkNo, it's only meant to be used on the logs
      *
      * @return This Chunk's ID
+     * @see #getKey()
      */
     public String getChunkId() {
-        return fileId + "_" + chunkNo;
+        return key.toString();
     }
 
     /**
@@ -183,6 +220,31 @@ public abstract class Chunk implements Serializable {
         this.stored = stored;
     }
 
+    /**
+     * @return True if this Chunk's body is compressed (the body sent and stored is the compressed one)
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Setter Method for the compressed flag
+     *
+     * @param compressed Value to set the compressed flag
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Method to set the size without having the body, used when the chunk is rebuilt from the database
+     *
+     * @param bytes Body's size in bytes
+     */
+    public void setSize(int bytes) {
+        this.size = bytes / 1000.0;
+    }
+
     /**
      * @return The Chunk's Size in Byte
      */
@@ -0,0 +1,133 @@
+package files;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serializable;
+
+/**
+ * Compact identifier of a chunk, used as key on the chunks maps
+ * <p>
+ * A File ID is the hex representation of a SHA-256 hash, keeping it as a 64 character string (plus the chunk
+ * number concatenated) for each chunk wastes a lot of memory and every lookup would need to build and hash a new
+ * string. This key keeps the {@link FileKey} of the chunk's file (the 32 raw bytes of the hash) and the chunk
+ * number, with the hash code computed once. The chunks of a file all share its interned {@link FileKey}.
+ * </p>
+ */
+public final class ChunkKey implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // the serialized form still carries the file key's fields, so the saved states keep loading
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("fileId", byte[].class),
+            new ObjectStreamField("hex", boolean.class),
+            new ObjectStreamField("chunkNo", int.class),
+            new ObjectStreamField("hash", int.class)
+    };
+
+    // only assigned on construction or deserialization
+    private FileKey file;
+    private int chunkNo;
+    private int hash;
+
+    private ChunkKey(FileKey file, int chunkNo) {
+        this.file = file;
+        this.chunkNo = chunkNo;
+        this.hash = 31 * file.hashCode() + chunkNo;
+    }
+
+    /**
+     * Method to create a key from the File ID as it's seen on the messages
+     *
+     * @param fileId  Chunk's File ID (hex string)
+     * @param chunkNo Chunk's Sequential Number
+     * @return The key for the chunk
+     */
+    public static ChunkKey of(String fileId, int chunkNo) {
+        return new ChunkKey(FileKey.of(fileId), chunkNo);
+    }
+
+    /**
+     * Method to create the key of a chunk of a file
+     *
+     * @param file    Key of the chunk's file
+     * @param chunkNo Chunk's Sequential Number
+     * @return The key for the chunk
+     */
+    public static ChunkKey of(FileKey file, int chunkNo) {
+        return new ChunkKey(file, chunkNo);
+    }
+
+    /**
+     * Method to create the key of another chunk of the same file, without decoding the File ID again
+     *
+     * @param chunkNo Chunk's Sequential Number
+     * @return The key for the chunk
+     */
+    public ChunkKey withChunkNo(int chunkNo) {
+        return new ChunkKey(file, chunkNo);
+    }
+
+    //! Not documented
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("fileId", file.getId());
+        fields.put("hex", file.isHex());
+        fields.put("chunkNo", chunkNo);
+        fields.put("hash", hash);
+        out.writeFields();
+    }
+
+    /**
+     * Method to read the key, the file key is interned so the chunks of a file share it once loaded too
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.file = FileKey.intern((byte[]) fields.get("fileId", null), fields.get("hex", false));
+        this.chunkNo = fields.get("chunkNo", 0);
+        this.hash = 31 * this.file.hashCode() + this.chunkNo;
+    }
+
+    /**
+     * @return The key of the chunk's file
+     */
+    public FileKey getFileKey() {
+        return file;
+    }
+
+    /**
+     * @return The File ID as it's used on the messages
+     */
+    public String getFileId() {
+        return file.getFileId();
+    }
+
+    /**
+     * @return The Chunk's Sequential Number
+     */
+    public int getChunkNo() {
+        return chunkNo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ChunkKey key = (ChunkKey) o;
+        return hash == key.hash && chunkNo == key.chunkNo && file.equals(key.file);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return The key as fileID_chunkNo, the format used on the logs
+     */
+    @Override
+    public String toString() {
+        return getFileId() + "_" + chunkNo;
+    }
+}
@@ -0,0 +1,137 @@
+package files;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Compact identifier of a file, used as key on the File ID indexes and shared by the keys of its chunks
+ * <p>
+ * Keeps the 32 raw bytes of the File ID's SHA-256 hash, with the hash code computed once. The hex representation
+ * is not kept, it's built every time it's needed on a message, a path or the logs. The keys are interned, so
+ * every chunk of a file shares the same key for as long as any of them is around.
+ * </p>
+ * <p>
+ * File IDs that are not a valid SHA-256 hex string (should not happen with our peers) are kept as their UTF-8 bytes
+ * so they still work as keys.
+ * </p>
+ *
+ * @see ChunkKey
+ */
+public final class FileKey {
+    private static final int HASH_SIZE = 32;
+
+    private final byte[] id;
+    private final boolean hex;
+    private final int hash;
+
+    // key -> itself, weakly held so the key of a file goes away with the last of its chunks, guarded by itself
+    private static final Map<FileKey, WeakReference<FileKey>> interned = new WeakHashMap<>();
+
+    private FileKey(byte[] id, boolean hex) {
+        this.id = id;
+        this.hex = hex;
+        this.hash = 31 * Arrays.hashCode(id) + Boolean.hashCode(hex);
+    }
+
+    /**
+     * Method to get the key from the File ID as it's seen on the messages
+     *
+     * @param fileId File ID (hex string)
+     * @return The key for the file
+     */
+    public static FileKey of(String fileId) {
+        byte[] raw = decodeHex(fileId);
+        if (raw == null)
+            return intern(fileId.getBytes(StandardCharsets.UTF_8), false);
+        return intern(raw, true);
+    }
+
+    /**
+     * Method to get the one key of a file
+     *
+     * @param id  Raw bytes of the File ID
+     * @param hex <code>true</code> if the bytes are a decoded hex string
+     * @return The key for the file, the one already in use if there is one
+     */
+    static FileKey intern(byte[] id, boolean hex) {
+        FileKey key = new FileKey(id, hex);
+        synchronized (interned) {
+            WeakReference<FileKey> reference = interned.get(key);
+            FileKey existing = reference == null ? null : reference.get();
+            if (existing != null) return existing;
+
+            interned.put(key, new WeakReference<>(key));
+            return key;
+        }
+    }
+
+    /**
+     * Helper to decode a SHA-256 hex string
+     *
+     * @return The raw bytes, or <code>null</code> if the string is not a valid SHA-256 hex string
+     */
+    private static byte[] decodeHex(String fileId) {
+        if (fileId.length() != HASH_SIZE * 2) return null;
+
+        byte[] raw = new byte[HASH_SIZE];
+        for (int i = 0; i < HASH_SIZE; i++) {
+            int high = nibble(fileId.charAt(2 * i));
+            int low = nibble(fileId.charAt(2 * i + 1));
+            if (high < 0 || low < 0) return null;
+            raw[i] = (byte) ((high << 4) | low);
+        }
+        return raw;
+    }
+
+    /**
+     * Helper to decode a lower case hex digit (upper case would not be encoded back the same way)
+     *
+     * @return The digit's value, or -1 if it's not a lower case hex digit
+     */
+    private static int nibble(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    //! Not documented
+    byte[] getId() {
+        return id;
+    }
+
+    //! Not documented
+    boolean isHex() {
+        return hex;
+    }
+
+    /**
+     * @return The File ID as it's used on the messages, built from the raw bytes
+     */
+    public String getFileId() {
+        return hex ? IOUtils.bytesToHex(id) : new String(id, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        FileKey key = (FileKey) o;
+        return hash == key.hash && hex == key.hex && Arrays.equals(id, key.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * @return The File ID
+     */
+    @Override
+    public String toString() {
+        return getFileId();
+    }
+}
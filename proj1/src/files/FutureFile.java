@@ -1,17 +1,23 @@
 package files;
 
 import jobs.RestoreChunk;
+import messages.GetchunksMessage;
 import peer.Constants;
 import peer.Peer;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 
 
 /**
@@ -39,11 +45,7 @@ public class FutureFile {
         this.pathname = pathname;
         this.peer = peer;
 
-        for (Map.Entry<String, SentChunk> entry : this.peer.getInternalState().getSentChunksMap().entrySet()) {
-            if (entry.getValue().getFileId().equals(fileId)) {
-                sentChunks.add(entry.getValue());
-            }
-        }
+        this.sentChunks.addAll(this.peer.getInternalState().getSentChunks(fileId));
 
         this.numChunks = sentChunks.size();
         this.restoredPathname = String.format(restoredPathname, new File(pathname).getName());
@@ -55,55 +57,117 @@ public class FutureFile {
     public void restoreFile() {
         try {
             getChunks();
-        } catch (ExecutionException | InterruptedException | IOException e) {
+        } catch (InterruptedException | IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Private method to receive the Chunks
+     * Private method to receive the Chunks, each chunk is written at its position on the restored file as soon as
+     * it arrives and its body is released right away, so only the chunks in flight are kept in memory
      *
-     * @throws ExecutionException   On error getting a future Chunk
-     * @throws InterruptedException On error while sleeping
+     * @throws InterruptedException On error while waiting for a Chunk
      * @throws IOException          On error while performing I/O operations
      */
-    private void getChunks() throws ExecutionException, InterruptedException, IOException {
+    private void getChunks() throws InterruptedException, IOException {
         System.out.println("[PEER] Gathering chunks from peers. Listing properties below...");
         System.out.printf("FileID: %s\n", this.fileId);
         System.out.printf("Pathname: %s\n", this.pathname);
         System.out.printf("Number of chunks: %d\n", this.numChunks);
         System.out.println("--------------------------------------------------------------------------");
 
-        List<Future<SentChunk>> promisedChunks = new ArrayList<>();
-        for (SentChunk chunk : this.sentChunks) {
-            promisedChunks.add(this.peer.getIOExecutor().submit(new RestoreChunk(peer, chunk)));
+        // chunks are handed over as they arrive, not in order, and only a bounded number of them is requested
+        // at a time so only those are kept in memory
+        BlockingQueue<SentChunk> arrived = new LinkedBlockingQueue<>();
+        List<CompletableFuture<SentChunk>> pending = new ArrayList<>();
+        Iterator<SentChunk> next = this.sentChunks.iterator();
+        int requested = 0;
+        while (requested < Constants.RESTORE_IN_FLIGHT && next.hasNext()) {
+            requested += this.request(next, arrived, pending);
         }
 
-        RandomAccessFile randomAccessFile = new RandomAccessFile(new File(this.restoredPathname), "rw");
+        try (FileChannel channel = FileChannel.open(Paths.get(this.restoredPathname),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i < this.numChunks; i++) {
+                // waits here for any promise to be fulfilled
+                SentChunk chunk = arrived.take();
+
+                if (chunk == null || chunk.getBody() == null) {
+                    System.out.println("[PEER] One or more chunks are missing! Aborting...");
+                    pending.forEach(promise -> promise.cancel(true));
+                    return;
+                }
+                if (chunk.isCompressed()) {
+                    try {
+                        chunk.setBody(IOUtils.decompress(chunk.getBody(), Constants.CHUNK_SIZE));
+                    } catch (IOException e) {
+                        System.out.printf("[PEER] Could not decompress %s! Aborting...\n", chunk.getChunkId());
+                        chunk.clearBody();
+                        pending.forEach(promise -> promise.cancel(true));
+                        return;
+                    }
+                }
+                if (chunk.getChunkNo() != this.numChunks - 1 && chunk.getBody().length != Constants.CHUNK_SIZE) {
+                    System.out.println("[PEER] Received a chunk with less than 64KB but it was not the last chunk! Aborting...");
+                    chunk.clearBody();
+                    pending.forEach(promise -> promise.cancel(true));
+                    return;
+                }
+
+                ByteBuffer body = ByteBuffer.wrap(chunk.getBody());
+                long position = (long) chunk.getChunkNo() * Constants.CHUNK_SIZE;
+                while (body.hasRemaining()) {
+                    position += channel.write(body, position);
+                }
 
-        for (Future<SentChunk> promised : promisedChunks) {
-            // waits here for the respective promise to be fulfilled
-            SentChunk chunk = promised.get();
-
-            if (chunk == null || chunk.getBody() == null) {
-                System.out.println("[PEER] One or more chunks are missing! Aborting...");
-                randomAccessFile.close();
-                return;
-            }
-            if (chunk.getChunkNo() != this.numChunks - 1 && chunk.getBody().length != Constants.CHUNK_SIZE) {
-                System.out.println("[PEER] Received a chunk with less than 64KB but it was not the last chunk! Aborting...");
-                randomAccessFile.close();
                 chunk.clearBody();
-                return;
+
+                // chunks are requested a batch at a time, once there's room for a whole batch
+                if (requested - (i + 1) <= Constants.RESTORE_IN_FLIGHT - Constants.RESTORE_BATCH && next.hasNext()) {
+                    requested += this.request(next, arrived, pending);
+                }
             }
+        }
+
+        System.out.printf("[PEER] %s RESTORED SUCCESSFULLY!\n", this.pathname);
+    }
 
-            randomAccessFile.seek(chunk.getChunkNo() * 64000L);
-            randomAccessFile.write(chunk.getBody());
+    /**
+     * Helper to start the restoration of the next batch of chunks, each chunk is put on the queue once it arrives
+     * (or once the restoration gives up on it)
+     * <p>
+     * On the enhanced version the whole batch is asked for with a single GETCHUNKS message, so the peers storing
+     * the chunks handle them in one go, the chunks that don't arrive are then asked for one by one
+     * </p>
+     *
+     * @param next    Chunks left to be requested
+     * @param arrived Queue of chunks already restored
+     * @param pending Futures of the chunks requested so far
+     * @return Number of chunks requested
+     * @see messages.GetchunksMessage
+     */
+    private int request(Iterator<SentChunk> next, BlockingQueue<SentChunk> arrived, List<CompletableFuture<SentChunk>> pending) {
+        List<SentChunk> batch = new ArrayList<>();
+        while (batch.size() < Constants.RESTORE_BATCH && next.hasNext()) {
+            batch.add(next.next());
+        }
 
-            chunk.clearBody();
+        boolean together = this.peer.isEnhanced() && batch.size() > 1;
+        for (SentChunk chunk : batch) {
+            CompletableFuture<SentChunk> promised = new RestoreChunk(this.peer, chunk, together).start();
+            promised.thenAccept(arrived::add);
+            pending.add(promised);
         }
-        randomAccessFile.close();
 
-        System.out.printf("[PEER] %s RESTORED SUCCESSFULLY!\n", this.pathname);
+        if (together) {
+            // the chunks are sorted, so the bitmap starts at the first one
+            int first = batch.get(0).getChunkNo();
+            BitSet chunks = new BitSet();
+            for (SentChunk chunk : batch) {
+                chunks.set(chunk.getChunkNo() - first);
+            }
+            this.peer.getMulticastControl().sendMessage(new GetchunksMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), this.fileId, first, chunks));
+        }
+        return batch.size();
     }
 }
@@ -4,12 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * This class is mostly Static, as the name suggests, this is a class for Utility methods
@@ -86,13 +90,89 @@ public class IOUtils {
         return null;
     }
 
+    /**
+     * Method to hash a chunk's body, the hash is the body's address on the peers' content store
+     *
+     * @param body Body to be hashed
+     * @return The SHA-256 of the body on a Hexadecimal Representation
+     */
+    public static String hashContent(byte[] body) {
+        try {
+            return bytesToHex(MessageDigest.getInstance("SHA-256").digest(body));
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Method to compress a chunk's data with Deflate
+     *
+     * @param data Data to be compressed, from its position to its limit (the buffer itself is not changed)
+     * @return The compressed data, or <code>null</code> if the data doesn't shrink
+     */
+    public static byte[] compress(ByteBuffer data) {
+        if (!data.hasRemaining()) return null;
+
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data.duplicate());
+            deflater.finish();
+            // anything that doesn't fit on a buffer smaller than the data is not worth it
+            byte[] out = new byte[data.remaining() - 1];
+            int length = 0;
+            while (!deflater.finished() && length < out.length) {
+                length += deflater.deflate(out, length, out.length - length);
+            }
+            if (!deflater.finished()) return null;
+
+            byte[] compressed = new byte[length];
+            System.arraycopy(out, 0, compressed, 0, length);
+            return compressed;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Method to decompress a chunk's body compressed with {@link #compress(ByteBuffer)}
+     *
+     * @param body    Compressed body
+     * @param maxSize Maximum size of the decompressed data (a chunk's size)
+     * @return The decompressed data
+     * @throws IOException If the body is not valid compressed data or decompresses to more than the maximum size
+     */
+    public static byte[] decompress(byte[] body, int maxSize) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            // one extra byte, so the stream can end right after the maximum size
+            byte[] out = new byte[maxSize + 1];
+            int length = 0;
+            while (!inflater.finished() && length < out.length) {
+                int inflated = inflater.inflate(out, length, out.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (!inflater.finished() || length > maxSize) throw new IOException("Invalid compressed chunk body");
+
+            byte[] data = new byte[length];
+            System.arraycopy(out, 0, data, 0, length);
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed chunk body", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
     /**
      * Method to convert a byte array to the Hexadecimal representation
      *
      * @param bytes Byte array to be converted to String on a Hexadecimal Representation
      * @return The byte array converted to a Hexadecimal String
      */
-    private static String bytesToHex(byte[] bytes) {
+    static String bytesToHex(byte[] bytes) {
         char[] HEX_ARRAY = "0123456789abcdef".toCharArray();
 
         char[] hexChars = new char[bytes.length * 2];
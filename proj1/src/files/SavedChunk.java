@@ -10,6 +10,10 @@ import java.io.Serializable;
 public class SavedChunk extends Chunk implements Serializable {
     private boolean isBeingHandled = false;
     private boolean alreadyProvided = false;
+    // SHA-256 of the body, the address of the stored body on the content store (null for chunks not stored yet)
+    private String contentHash;
+    // last time the body was read to be sent, used to pick the chunks to evict (not kept across restarts)
+    private transient long lastAccess;
 
     /**
      * Construction for a Saved Chunk given the full information of said Chunk
@@ -24,6 +28,17 @@ public class SavedChunk extends Chunk implements Serializable {
         this.setBody(body);
     }
 
+    /**
+     * Construction for a Saved Chunk given the full information of said Chunk (except the body)
+     *
+     * @param fileId            Chunk's File ID
+     * @param chunkNo           Chunk's Sequential Number
+     * @param replicationDegree Chunk's Desired Replication Degree
+     */
+    public SavedChunk(String fileId, int chunkNo, int replicationDegree) {
+        super(fileId, chunkNo, replicationDegree);
+    }
+
     /**
      * Constructor for a Saved Chunk given a file ID and a chunk Number
      *
@@ -50,7 +65,7 @@ public class SavedChunk extends Chunk implements Serializable {
      */
     @Override
     public String toString() {
-        return String.format("[SavedChunk] FileID: %s | ChunkNo: %-4d | Desired Replication Degree: %d | Perceived Replication Degree: %d | Size: %.2fKB", fileId, chunkNo, replicationDegree, peers.size(), getSize());
+        return String.format("[SavedChunk] FileID: %s | ChunkNo: %-4d | Desired Replication Degree: %d | Perceived Replication Degree: %d | Size: %.2fKB", getFileId(), getChunkNo(), replicationDegree, peers.size(), getSize());
     }
 
     //! Not documented
@@ -72,4 +87,33 @@ public class SavedChunk extends Chunk implements Serializable {
     public boolean isAlreadyProvided() {
         return alreadyProvided;
     }
+
+    /**
+     * @return Hash of the chunk's body, used as its address on the local storage, or <code>null</code> if the
+     * chunk is not stored on the content store
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @param contentHash Hash of the chunk's body stored on the local storage
+     */
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Method to mark the chunk's body as read just now
+     */
+    public void touch() {
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    /**
+     * @return Last time the chunk's body was read, 0 if it was not read since the peer started
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
 }
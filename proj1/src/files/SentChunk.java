@@ -1,13 +1,12 @@
 package files;
 
-import peer.Constants;
+import jobs.BackupWindow;
+import messages.TransferClient;
 
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.util.Arrays;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * SentChunk class, this class is an extension of the Chunk meant to keep the sent chunks information
@@ -36,36 +35,61 @@ public class SentChunk extends Chunk implements Serializable {
         super(fileId, chunkNo);
     }
 
-    private boolean connectionFailed = false;
-    private boolean receivingData = false;
+    // set by the TCP transfers on the IO executor and read on the chunk's lane
+    private volatile boolean connectionFailed = false;
+    private volatile boolean receivingData = false;
+    private transient BackupWindow window;
+    private transient ScheduledFuture<?> storedCheck;
 
+    /**
+     * @param window Sending window this chunk is being backed up on
+     */
+    public void setWindow(BackupWindow window) {
+        this.window = window;
+    }
+
+    /**
+     * @return The sending window this chunk is being backed up on, or <code>null</code> if none
+     */
+    public BackupWindow getWindow() {
+        return window;
+    }
+
+    /**
+     * @param storedCheck Pending check for the STORED messages of the last PUTCHUNK sent for this chunk
+     * @see jobs.ReceiveStoredChunk
+     */
+    public void setStoredCheck(ScheduledFuture<?> storedCheck) {
+        this.storedCheck = storedCheck;
+    }
+
+    /**
+     * Method to cancel the pending check for STORED messages, used once the chunk reaches its desired replication
+     * degree before the check is due
+     */
+    public void cancelStoredCheck() {
+        ScheduledFuture<?> storedCheck = this.storedCheck;
+        if (storedCheck != null) storedCheck.cancel(false);
+        this.storedCheck = null;
+    }
 
     /**
      * <h2>Method to load this Chunk's body from a TCP connection</h2>
      * <p>
-     * This method tries to establish a TCP connection to the server (i.e. the peer who sent the CHUNK message),
-     * then it reads the body from the input stream using the newly created socket
+     * This method claims the chunk from the transfer server of the peer who sent the CHUNK message, reusing an
+     * open connection to that server if there's one
      * </p>
      *
-     * @param address Address used to create the client socket
-     * @param port    Post used to create the client socket
-     * @throws IOException On error reading the bytes from the stream
+     * @param client Client keeping the connections to the transfer servers
+     * @param server Address of the transfer server
+     * @param token  Token of the chunk on the transfer server
+     * @throws IOException On error receiving the chunk
      * @see jobs.SendChunk
      */
-    public void loadBodyFromTCP(InetAddress address, int port) throws IOException {
-        Socket client = new Socket(address.getHostAddress(), port);
-
+    public void loadBodyFromTCP(TransferClient client, InetSocketAddress server, long token) throws IOException {
         receivingData = true;
 
-        DataInputStream stream = new DataInputStream(client.getInputStream());
-        int readBytes = 0;
-        int lastRead = 1;
-        byte[] aux = new byte[Constants.CHUNK_SIZE];
-        while (readBytes < Constants.CHUNK_SIZE && lastRead >= 0) {
-            lastRead = stream.read(aux, readBytes, Constants.CHUNK_SIZE - readBytes);
-            readBytes += Math.max(lastRead, 0);
-        }
-        this.body = Arrays.copyOf(aux, readBytes);
+        this.body = client.fetch(server, token);
         receivingData = false;
 
         System.out.printf("[RESTORE] [TCP] Received %s : %d bytes\n", getChunkId(), body.length);
@@ -86,7 +110,7 @@ public class SentChunk extends Chunk implements Serializable {
      */
     @Override
     public String toString() {
-        return String.format("[SentChunk] ChunkNo: %-4d | Perceived Replication Degree: %d", chunkNo, peers.size());
+        return String.format("[SentChunk] ChunkNo: %-4d | Perceived Replication Degree: %d", getChunkNo(), peers.size());
     }
 
     //! Not documented
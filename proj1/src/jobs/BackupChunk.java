@@ -1,10 +1,12 @@
 package jobs;
 
 import files.Chunk;
+import files.SentChunk;
 import messages.Message;
 import messages.PutchunkMessage;
 import peer.Peer;
 
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -37,8 +39,18 @@ public class BackupChunk implements Runnable {
      */
     @Override
     public void run() {
+        // the chunk may have been stored enough times while this job was waiting
+        if (chunk instanceof SentChunk && ((SentChunk) chunk).getWindow() != null
+                && !((SentChunk) chunk).getWindow().isInFlight((SentChunk) chunk)) {
+            return;
+        }
+
         if (this.timeout >= 32) {
             System.out.println("[BACKUP] Chunk Could not be Backed Up - " + chunk.getChunkId());
+            chunk.releaseSource();
+            if (chunk instanceof SentChunk && ((SentChunk) chunk).getWindow() != null) {
+                ((SentChunk) chunk).getWindow().abandoned((SentChunk) chunk);
+            }
             return;
         }
 
@@ -48,8 +60,11 @@ public class BackupChunk implements Runnable {
                 chunk.getFileId(),
                 chunk.getChunkNo(),
                 chunk.getReplicationDegree(),
-                chunk.getBody());
+                chunk.getBodyBuffer(),
+                chunk.isCompressed());
         this.peer.getMulticastDataBackup().sendMessage(message);
-        this.peer.getRequestsExecutor().schedule(new ReceiveStoredChunk(chunk, peer, timeout), timeout, TimeUnit.SECONDS);
+        ScheduledFuture<?> storedCheck = this.peer.getChunkExecutor().schedule(chunk.getKey(), new ReceiveStoredChunk(chunk, peer, timeout), timeout, TimeUnit.SECONDS);
+        // the check is cancelled if the chunk is stored enough times before it's due
+        if (chunk instanceof SentChunk) ((SentChunk) chunk).setStoredCheck(storedCheck);
     }
 }
@@ -0,0 +1,183 @@
+package jobs;
+
+import files.ChunkKey;
+import files.SentChunk;
+import peer.Constants;
+import peer.Peer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Sending window for the chunks of a file being backed up
+ * <p>
+ * Sending every PUTCHUNK of a big file at once floods the multicast group, the receivers start dropping datagrams
+ * and most chunks end up being retransmitted with longer and longer timeouts. Instead, only a window of chunks is
+ * in flight at any time, the next chunk is only sent once a chunk in flight reaches its desired replication degree.
+ * </p>
+ * <p>
+ * The window size is adjusted like TCP's congestion window (AIMD): it grows by one chunk per acknowledged chunk
+ * until the threshold, then by one chunk per window acknowledged; when a chunk has to be retransmitted the window is
+ * cut in half (at most once per {@link Constants#BACKUP_DECREASE_INTERVAL}, as a burst of losses is a single event).
+ * </p>
+ *
+ * @see BackupChunk
+ * @see ReceiveStoredChunk
+ */
+public class BackupWindow {
+    private final Peer peer;
+    private final String fileId;
+    private final Queue<SentChunk> pending = new ArrayDeque<>();
+    private final Set<ChunkKey> inFlight = new HashSet<>();
+    private double window = Constants.BACKUP_INITIAL_WINDOW;
+    private double threshold = Constants.BACKUP_MAX_WINDOW;
+    private long lastDecrease = 0;
+    private int failed = 0;
+    private final CompletableFuture<Boolean> completion = new CompletableFuture<>();
+
+    /**
+     * @param peer   Peer responsible for the backup
+     * @param fileId File ID of the file being backed up
+     */
+    public BackupWindow(Peer peer, String fileId) {
+        this.peer = peer;
+        this.fileId = fileId;
+    }
+
+    /**
+     * Method to queue a chunk to be backed up, it will only be sent once there's room on the window
+     *
+     * @param chunk Chunk to be backed up
+     */
+    public synchronized void offer(SentChunk chunk) {
+        chunk.setWindow(this);
+        this.pending.add(chunk);
+    }
+
+    /**
+     * Method to send as many queued chunks as the window allows
+     */
+    public void fill() {
+        List<SentChunk> ready = new ArrayList<>();
+        synchronized (this) {
+            while (this.inFlight.size() < (int) this.window && !this.pending.isEmpty()) {
+                SentChunk chunk = this.pending.poll();
+                this.inFlight.add(chunk.getKey());
+                ready.add(chunk);
+            }
+        }
+        for (SentChunk chunk : ready) {
+            this.peer.getIOExecutor().submit(new BackupChunk(chunk, this.peer, 1));
+        }
+        this.finishIfDone();
+    }
+
+    /**
+     * Method to acknowledge a chunk that has reached its desired replication degree, the chunk is done right away
+     * (its pending STORED check is cancelled), the window grows and the next chunks are sent. Acknowledging a chunk
+     * that is not in flight (e.g. a late STORED) does nothing
+     *
+     * @param chunk Chunk backed up
+     */
+    public void acknowledged(SentChunk chunk) {
+        synchronized (this) {
+            if (!this.inFlight.remove(chunk.getKey())) return;
+            this.window += this.window < this.threshold ? 1 : 1 / this.window;
+            this.window = Math.min(this.window, Constants.BACKUP_MAX_WINDOW);
+        }
+        chunk.cancelStoredCheck();
+        chunk.releaseSource();
+        this.peer.getInternalState().commit();
+        System.out.println("[BACKUP] Chunk Backed Up - " + chunk.getChunkId());
+
+        this.fill();
+    }
+
+    /**
+     * Method to give up on a chunk, it leaves the window without changing its size
+     *
+     * @param chunk Chunk that could not be backed up
+     */
+    public void abandoned(SentChunk chunk) {
+        synchronized (this) {
+            if (!this.inFlight.remove(chunk.getKey())) return;
+            this.failed++;
+        }
+        this.fill();
+    }
+
+    /**
+     * Method to signal that a chunk had to be sent again, the window is cut in half
+     */
+    public synchronized void retransmitted() {
+        long now = System.currentTimeMillis();
+        if (now - this.lastDecrease < Constants.BACKUP_DECREASE_INTERVAL) return;
+
+        this.lastDecrease = now;
+        this.threshold = Math.max(Constants.BACKUP_MIN_WINDOW, this.window / 2);
+        this.window = this.threshold;
+    }
+
+    /**
+     * Method to stop tracking this window and complete the backup once every chunk has left it
+     */
+    private void finishIfDone() {
+        boolean backedUp;
+        synchronized (this) {
+            if (!this.pending.isEmpty() || !this.inFlight.isEmpty()) return;
+            backedUp = this.failed == 0;
+        }
+        this.peer.removeBackupWindow(this.fileId, this);
+        this.completion.complete(backedUp);
+    }
+
+    /**
+     * @return A future completed once every chunk has left the window, with <code>true</code> if every chunk reached
+     * its desired replication degree
+     */
+    public CompletableFuture<Boolean> getCompletion() {
+        return this.completion;
+    }
+
+    /**
+     * @param chunk Chunk to check
+     * @return <code>true</code> if the chunk was sent and has not left the window yet
+     */
+    public synchronized boolean isInFlight(SentChunk chunk) {
+        return this.inFlight.contains(chunk.getKey());
+    }
+
+    /**
+     * @return Number of chunks sent and not yet acknowledged
+     */
+    public synchronized int getInFlight() {
+        return this.inFlight.size();
+    }
+
+    /**
+     * @return Number of chunks waiting for room on the window
+     */
+    public synchronized int getPending() {
+        return this.pending.size();
+    }
+
+    /**
+     * @return Current window size, in chunks
+     */
+    public synchronized int getWindowSize() {
+        return (int) this.window;
+    }
+
+    /**
+     * @return Pretty Printed window information
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format("[Window] Size: %d | In Flight: %d | Pending: %d", (int) this.window, this.inFlight.size(), this.pending.size());
+    }
+}
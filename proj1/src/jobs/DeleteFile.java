@@ -46,8 +46,8 @@ public class DeleteFile implements Runnable {
             this.peer.getRequestsExecutor().schedule(new DeleteFile(peer, fileId, pathname, timeout * 2), timeout, TimeUnit.SECONDS);
         } else {
             System.out.println("[PEER] File Deleted");
+            this.peer.getInternalState().addDeletedFile(fileId);
             this.peer.getInternalState().deleteBackedUpEntries(pathname);
-            this.peer.getInternalState().getDeletedFiles().add(fileId);
         }
     }
 }
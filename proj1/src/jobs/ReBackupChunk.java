@@ -4,6 +4,8 @@ import files.Chunk;
 import peer.Peer;
 import peer.PeerInternalState;
 
+import java.nio.ByteBuffer;
+
 /**
  * Job to start a backup for a Chunk backed up by this peer, this job will be triggered for the RECLAIM sub protocol
  *
@@ -29,8 +31,10 @@ public class ReBackupChunk implements Runnable {
     @Override
     public void run() {
         if (!chunk.receivedPutchunk()) {
-            this.peer.getInternalState().fillBodyFromDisk(chunk);
-            if (chunk.getBody() != null) {
+            // sent straight from the chunk cache, the source is released once the backup is over
+            ByteBuffer body = this.peer.getInternalState().readChunk(chunk);
+            if (body != null) {
+                chunk.setSource(body);
                 this.peer.getIOExecutor().submit(new BackupChunk(chunk, this.peer, 1));
             }
         } else {
@@ -1,6 +1,7 @@
 package jobs;
 
 import files.Chunk;
+import files.SentChunk;
 import peer.Peer;
 
 /**
@@ -30,13 +31,22 @@ public class ReceiveStoredChunk implements Runnable {
     /**
      * Method to start the job, it will check if the Chunk's actual replication degree is lower than
      * the desired, if it is it will start another BackupChunk right away with twice the timeout, otherwise it will
-     * just commit the database and finish as no other action is required
+     * just commit the database and finish as no other action is required. Chunks being backed up on a sending
+     * window are usually done before this check, as soon as they are stored enough times
      */
     @Override
     public void run() {
+        // the sending window of the backup this chunk is part of (if any)
+        BackupWindow window = chunk instanceof SentChunk ? ((SentChunk) chunk).getWindow() : null;
+
         if (chunk.getPeers().size() < chunk.getReplicationDegree()) {
+            if (window != null) window.retransmitted();
             this.peer.getIOExecutor().submit(new BackupChunk(chunk, peer, timeout * 2));
+        } else if (window != null) {
+            // usually the chunk already left the window when the last STORED arrived
+            window.acknowledged((SentChunk) chunk);
         } else {
+            chunk.releaseSource();
             this.peer.getInternalState().commit();
             System.out.println("[BACKUP] Chunk Backed Up - " + chunk.getChunkId());
         }
@@ -5,50 +5,98 @@ import messages.GetchunkMessage;
 import messages.Message;
 import peer.Peer;
 
-import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Job responsible for Restoring a Chunk and making sure the data is received
+ * <p>
+ * No thread is blocked waiting for the chunk: the chunk's future is completed by the CHUNK task as soon as the
+ * body arrives, and the GETCHUNK retries are scheduled on the chunk's lane (so an attempt never runs while the CHUNK
+ * task is filling the chunk), each run of this job is a single attempt.
+ * </p>
+ *
+ * @see tasks.ChunkTask
  */
-public class RestoreChunk implements Callable<SentChunk> {
+public class RestoreChunk implements Runnable {
+    private static final int MAX_ATTEMPTS = 10;
+
     private final Peer peer;
     private final SentChunk chunk;
+    private final Message message;
+    private final CompletableFuture<SentChunk> future;
+    private final boolean requested;
+    private int attempt = 0;
+    private boolean waitedForTransfer = false;
 
     /**
      * @param peer  Peer responsible for the Restoration Job
      * @param chunk Chunk to be filled with body data
      */
     public RestoreChunk(Peer peer, SentChunk chunk) {
+        this(peer, chunk, false);
+    }
+
+    /**
+     * @param peer      Peer responsible for the Restoration Job
+     * @param chunk     Chunk to be filled with body data
+     * @param requested <code>true</code> if the chunk is already being asked for on a GETCHUNKS message, the first
+     *                  attempt then only waits for it and the retries fall back to GETCHUNK
+     * @see messages.GetchunksMessage
+     */
+    public RestoreChunk(Peer peer, SentChunk chunk, boolean requested) {
         this.peer = peer;
         this.chunk = chunk;
+        this.requested = requested;
 
         // just to be sure :)
         chunk.clearBody();
+
+        this.message = new GetchunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), this.chunk.getFileId(), this.chunk.getChunkNo());
+        this.future = this.peer.getInternalState().expectChunk(chunk);
     }
 
     /**
-     * Call method to return the chunk once it's filled or once it number of tries are exceeded
+     * Method to start the restoration of the chunk
      *
-     * @return The chunk sent for restoration
-     * @throws Exception On thread sleep interruption
+     * @return A future completed with the chunk once it's filled or once its number of tries are exceeded (in that
+     * case the chunk has no body)
      * @see GetchunkMessage
      * @see tasks.GetchunkTask
      */
+    public CompletableFuture<SentChunk> start() {
+        this.peer.getChunkExecutor().execute(this.chunk.getKey(), this);
+        return this.future;
+    }
+
+    /**
+     * Method to perform an attempt, it sends a GETCHUNK message (unless it's the first attempt of a chunk already
+     * requested) and schedules the next attempt, waiting a second longer each time
+     */
     @Override
-    public SentChunk call() throws Exception {
-        Message message = new GetchunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), this.chunk.getFileId(), this.chunk.getChunkNo());
-
-        int i = 1;
-        do {
-            this.peer.getMulticastControl().sendMessage(message);
-            Thread.sleep(i * 1000L);
-            if (peer.isEnhanced() && chunk.isReceivingData() && !chunk.connectionFailed()) {
-                // wait just a bit longer
-                Thread.sleep(1000);
-            }
-            i++;
-        } while (chunk.getBody() == null && i < 10);
-
-        return chunk;
+    public synchronized void run() {
+        if (this.future.isDone()) return;
+
+        if (this.chunk.getBody() != null) {
+            this.future.complete(this.chunk);
+            return;
+        }
+
+        if (this.attempt > 0 && !this.waitedForTransfer && this.peer.isEnhanced() && this.chunk.isReceivingData() && !this.chunk.connectionFailed()) {
+            // wait just a bit longer
+            this.waitedForTransfer = true;
+            this.peer.getChunkExecutor().schedule(this.chunk.getKey(), this, 1000, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        this.attempt++;
+        if (this.attempt >= MAX_ATTEMPTS) {
+            this.future.complete(this.chunk);
+            return;
+        }
+
+        this.waitedForTransfer = false;
+        if (this.attempt > 1 || !this.requested) this.peer.getMulticastControl().sendMessage(this.message);
+        this.peer.getChunkExecutor().schedule(this.chunk.getKey(), this, this.attempt * 1000L, TimeUnit.MILLISECONDS);
     }
 }
@@ -4,12 +4,12 @@ import files.SavedChunk;
 import messages.ChunkMessage;
 import messages.GetchunkMessage;
 import messages.Message;
+import peer.ChunkStore;
 import peer.Peer;
 
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+
 
 /**
  * Job responsible to Send a Chunk to the initiator peer, this job will be triggered by the GETCHUNK task
@@ -22,7 +22,7 @@ public class SendChunk implements Runnable {
     private final Peer peer;
 
     /**
-     * @param message GETCHUNK message, the message is need to check if the data feed is done by TCP or Multicast
+     * @param message GETCHUNK (or GETCHUNKS) message, the message is need to check if the data feed is done by TCP or Multicast
      * @param chunk   Chunk to be sent
      * @param peer    Peer responsible for this Job
      * @see GetchunkMessage
@@ -36,56 +36,46 @@ public class SendChunk implements Runnable {
 
     /**
      * Method to start this job, this method will perform the necessary checks and then send the chunk by Multicast or
-     * TCP, depending on the protocol version
+     * offer it on the transfer server (TCP), depending on the protocol version
      */
     @Override
     public void run() {
         if (chunk.isAlreadyProvided()) {
             // System.out.println("[GETCHUNK] I've received a CHUNK message for this chunk so I won't provide it again");
-            return;
-        }
-        if (chunk.getBody() == null) {
-            // System.out.println("[GETCHUNK] Something happened and this chunk lost its body!");
+            chunk.setBeingHandled(false);
             return;
         }
 
-        Message message;
-        if (!this.peer.isEnhanced() || !this.message.isEnhanced()) {
-            message = new ChunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo(), chunk.getBody());
-            this.peer.getMulticastDataRestore().sendMessage(message);
-            // no need to keep the body in memory
-            int bytes = chunk.getBody().length;
-            chunk.clearBody();
-            chunk.setBeingHandled(false);
-            System.out.printf("[GETCHUNK] Sent %s : %d bytes\n", chunk.getChunkId(), bytes);
-        } else {
+        if (this.peer.isEnhanced() && this.message.isEnhanced() && this.peer.getTransferServer() != null) {
+            ChunkStore.Region file;
             try {
-                ServerSocket serverSocket = new ServerSocket(0);
-                message = new ChunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo(),
-                        Message.addressPortToBytes(peer.getAddress(), serverSocket.getLocalPort()));
-                this.peer.getMulticastDataRestore().sendMessage(message);
-
-                serverSocket.setSoTimeout(2000);
-                Socket connection = serverSocket.accept();
-                serverSocket.close();
-
-                DataOutputStream stream = new DataOutputStream(connection.getOutputStream());
-                stream.write(chunk.getBody(), 0, chunk.getBody().length);
-                stream.flush();
-                stream.close();
-                chunk.clearBody();
-                chunk.setBeingHandled(false);
-                System.out.printf("[GETCHUNK] [TCP] Sent %s\n", chunk.getChunkId());
+                file = this.peer.getInternalState().openChunk(chunk);
             } catch (IOException e) {
-                System.out.printf("[GETCHUNK] [TCP] Failed for chunk: %s\nFalling back to vanilla protocol...\n", chunk.getChunkId());
-                message = new ChunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo(), chunk.getBody());
-                this.peer.getMulticastDataRestore().sendMessage(message);
-                // no need to keep the body in memory
-                int bytes = chunk.getBody().length;
-                chunk.clearBody();
+                // System.out.println("[GETCHUNK] I was supposed to have that chunk, but I don't!");
                 chunk.setBeingHandled(false);
-                System.out.printf("[GETCHUNK] Sent %s : %d bytes\n", chunk.getChunkId(), bytes);
+                return;
             }
+            // the chunk waits on the transfer server until the initiator claims it with the token, it's sent straight
+            // from the disk so the body is never loaded
+            long token = this.peer.getTransferServer().offer(chunk, file);
+            Message message = new ChunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo(),
+                    Message.transferToBytes(peer.getAddress(), this.peer.getTransferServer().getPort(), token));
+            this.peer.getMulticastDataRestore().sendMessage(message);
+            return;
         }
+
+        // the body is only read when it has to go on the multicast message
+        ByteBuffer body = this.peer.getInternalState().readChunk(chunk);
+        if (body == null) {
+            // System.out.println("[GETCHUNK] Something happened and this chunk lost its body!");
+            chunk.setBeingHandled(false);
+            return;
+        }
+
+        int bytes = body.remaining();
+        Message message = new ChunkMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo(), body);
+        this.peer.getMulticastDataRestore().sendMessage(message);
+        chunk.setBeingHandled(false);
+        System.out.printf("[GETCHUNK] Sent %s : %d bytes\n", chunk.getChunkId(), bytes);
     }
 }
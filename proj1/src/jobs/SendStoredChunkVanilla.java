@@ -15,18 +15,21 @@ public class SendStoredChunkVanilla implements Runnable {
     private final Chunk chunk;
     private final Peer peer;
     private final Message message;
+    private final String initiatorVersion;
 
     /**
-     * @param chunk   Chunk related to this backup procedure
-     * @param peer    Peer responsible for this job
-     * @param message STORED message to be sent
+     * @param chunk            Chunk related to this backup procedure
+     * @param peer             Peer responsible for this job
+     * @param message          STORED message to be sent
+     * @param initiatorVersion Protocol version of the PUTCHUNK being answered
      * @see messages.StoredMessage
      * @see tasks.StoredTask
      */
-    public SendStoredChunkVanilla(Chunk chunk, Peer peer, Message message) {
+    public SendStoredChunkVanilla(Chunk chunk, Peer peer, Message message, String initiatorVersion) {
         this.chunk = chunk;
         this.peer = peer;
         this.message = message;
+        this.initiatorVersion = initiatorVersion;
     }
 
     /**
@@ -36,18 +39,17 @@ public class SendStoredChunkVanilla implements Runnable {
     @Override
     public void run() {
         // System.out.println("[DEBUG] SEND STORED CHUNK STARTED!");
-        if (chunk.isStored() && peer.getInternalState().getSavedChunksMap().containsKey(chunk.getChunkId())) {
+        if (chunk.isStored() && peer.getInternalState().getSavedChunksMap().containsKey(chunk.getKey())) {
             // peer has this chunk stored and it will send a stored anyways
-            peer.getMulticastControl().sendMessage(message);
-        } else if (!peer.getInternalState().getSentChunksMap().containsKey(chunk.getChunkId())) {
+            peer.getGroupCommitter().whenDurable(() -> peer.getStoredCoalescer().send(message, initiatorVersion));
+        } else if (!peer.getInternalState().getSentChunksMap().containsKey(chunk.getKey())) {
             if (chunk.getBody().length + this.peer.getInternalState().getOccupation() < this.peer.getInternalState().getCapacity()) {
-                // This peer will save the chunk locally
-                peer.getMulticastControl().sendMessage(message);
-                peer.getInternalState().storeChunk((SavedChunk) chunk);
-                chunk.setStored(true);
-                chunk.getPeers().add(peer.getPeerId());
-                peer.getInternalState().commit();
-                System.out.printf("[BACKUP] Saved chunk %s\n", chunk.getChunkId());
+                // This peer will save the chunk locally, the STORED only goes out once the chunk is durable
+                if (peer.getInternalState().storeChunk((SavedChunk) chunk)) {
+                    peer.getInternalState().commit();
+                    peer.getGroupCommitter().whenDurable(() -> peer.getStoredCoalescer().send(message, initiatorVersion));
+                    System.out.printf("[BACKUP] Saved chunk %s\n", chunk.getChunkId());
+                }
             } else {
                 System.out.printf("[PIS] Not enough space for %s\n", chunk.getChunkId());
             }
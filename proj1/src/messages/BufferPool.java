@@ -0,0 +1,64 @@
+package messages;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of reusable direct buffers used to receive datagrams from the multicast channels (and to encode the headers
+ * of the messages sent, on virtual threads)
+ * <p>
+ * Receiving a datagram needs a buffer big enough for the largest UDP payload (65507B), allocating one of those
+ * for every packet (most of them being ~100B STORED messages) puts a lot of pressure on the garbage collector, so
+ * instead we keep a bounded set of direct buffers and reuse them. A buffer is borrowed with <code>acquire</code>
+ * and must be handed back with <code>release</code> as soon as the data in it is no longer needed.
+ * </p>
+ */
+public class BufferPool {
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger(0);
+    private final int bufferSize;
+    private final int maxPooled;
+
+    /**
+     * Constructor for a Buffer Pool
+     *
+     * @param bufferSize Capacity of each buffer in bytes
+     * @param maxPooled  Maximum number of idle buffers kept on the pool, buffers released when the pool is full are
+     *                   left for the garbage collector
+     */
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * Method to borrow a buffer from the pool, if there are no idle buffers a new one is allocated
+     *
+     * @return A cleared direct buffer with <code>bufferSize</code> capacity
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Method to give a buffer back to the pool, after this call the buffer must not be used by the caller
+     *
+     * @param buffer Buffer previously returned by <code>acquire</code>
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize) return;
+
+        if (pooled.incrementAndGet() <= maxPooled) {
+            buffers.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
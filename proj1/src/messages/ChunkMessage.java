@@ -6,6 +6,7 @@ import tasks.Task;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
@@ -15,20 +16,40 @@ import java.util.regex.Pattern;
  * CHUNK Message Data Class
  */
 public class ChunkMessage extends Message {
+    private static final Pattern TRANSFER = Pattern.compile("^\\s*(.*?):(\\d+)#([0-9a-f]+)\\s*$");
+    // longest address:port#token there is, anything longer is chunk data
+    private static final int MAX_TRANSFER_LENGTH = 128;
+
     private InetAddress address;
     private int port;
+    private long token;
 
     //! Not documented
     public ChunkMessage(String protocolVersion, int senderId, String fileId, int chunkNo, byte[] body) {
         super(protocolVersion, "CHUNK", senderId, fileId, chunkNo, 0, body);
+        parseAddress();
+    }
 
-        if (!protocolVersion.equals("1.0")) {
-            Pattern p = Pattern.compile("^\\s*(.*?):(\\d+)\\s*$");
-            Matcher m = p.matcher(new String(body));
+    //! Not documented
+    public ChunkMessage(String protocolVersion, int senderId, String fileId, int chunkNo, ByteBuffer body) {
+        super(protocolVersion, "CHUNK", senderId, fileId, chunkNo, 0, body);
+        parseAddress();
+    }
+
+    /**
+     * Method to parse the transfer server address, port and token sent on the body of an enhanced CHUNK message,
+     * if the body doesn't match (e.g. the sender fell back to sending the chunk data) the address is left null
+     *
+     * @see jobs.SendChunk
+     */
+    private void parseAddress() {
+        if (!protocolVersion.equals("1.0") && body.remaining() <= MAX_TRANSFER_LENGTH) {
+            Matcher m = TRANSFER.matcher(StandardCharsets.UTF_8.decode(body.duplicate()));
             if (m.matches()) {
                 try {
                     address = InetAddress.getByName(m.group(1));
                     port = Integer.parseInt(m.group(2));
+                    token = Long.parseUnsignedLong(m.group(3), 16);
                 } catch (UnknownHostException e) {
                     e.printStackTrace();
                 }
@@ -46,20 +67,22 @@ public class ChunkMessage extends Message {
         return address;
     }
 
+    /**
+     * @return Token of the chunk on the sender's transfer server
+     */
+    public long getToken() {
+        return token;
+    }
+
     //! Not documented
     @Override
-    public byte[] encodeToSend() {
-        byte[] header = String.format("%s %s %s %s %d \r\n\r\n",
-                this.protocolVersion,
-                this.type,
-                this.senderId,
-                this.fileId,
-                this.chunkNo).getBytes(StandardCharsets.UTF_8);
-
-        byte[] toSend = new byte[header.length + this.body.length];
-        System.arraycopy(header, 0, toSend, 0, header.length);
-        System.arraycopy(this.body, 0, toSend, header.length, body.length);
-        return toSend;
+    public void encodeHeader(ByteBuffer out) {
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        putField(out, this.fileId);
+        putField(out, this.chunkNo);
+        endHeader(out);
     }
 
     //! Not documented
@@ -1,10 +1,11 @@
 package messages;
 
+import files.ChunkKey;
 import peer.Peer;
 import tasks.DeleteTask;
 import tasks.Task;
 
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -18,12 +19,12 @@ public class DeleteMessage extends Message {
 
     //! Not documented
     @Override
-    public byte[] encodeToSend() {
-        return String.format("%s %s %s %s \r\n\r\n",
-                this.protocolVersion,
-                this.type,
-                this.senderId,
-                this.fileId).getBytes(StandardCharsets.UTF_8);
+    public void encodeHeader(ByteBuffer out) {
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        putField(out, this.fileId);
+        endHeader(out);
     }
 
     //! Not documented
@@ -32,6 +33,14 @@ public class DeleteMessage extends Message {
         return new DeleteTask(this, peer);
     }
 
+    /**
+     * @return <code>null</code>, this message is not about a single chunk
+     */
+    @Override
+    public ChunkKey getStripeKey() {
+        return null;
+    }
+
     //! Not documented
     @Override
     public ExecutorService getWorker(Peer peer) {
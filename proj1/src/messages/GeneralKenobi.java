@@ -1,10 +1,11 @@
 package messages;
 
+import files.ChunkKey;
 import peer.Peer;
 import tasks.GeneralKenobiTask;
 import tasks.Task;
 
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -18,11 +19,19 @@ public class GeneralKenobi extends Message {
 
     //! Not documented
     @Override
-    public byte[] encodeToSend() {
-        return String.format("%s %s %s \r\n\r\n",
-                this.protocolVersion,
-                this.type,
-                this.senderId).getBytes(StandardCharsets.UTF_8);
+    public void encodeHeader(ByteBuffer out) {
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        endHeader(out);
+    }
+
+    /**
+     * @return <code>null</code>, this message is not about a single chunk
+     */
+    @Override
+    public ChunkKey getStripeKey() {
+        return null;
     }
 
     //! Not documented
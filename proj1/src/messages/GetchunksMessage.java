@@ -0,0 +1,69 @@
+package messages;
+
+import files.ChunkKey;
+import peer.Peer;
+import tasks.GetchunksTask;
+import tasks.Task;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * GETCHUNKS Message Data Class, a GETCHUNK for several chunks of the same file (enhanced peers only)
+ * <p>
+ * The header has the first chunk number and the body is a bitmap of the chunks requested, bit <i>i</i> set meaning
+ * chunk <i>first + i</i> is requested: <code>&lt;Version&gt; GETCHUNKS &lt;SenderId&gt; &lt;FileId&gt;
+ * &lt;FirstChunkNo&gt; CRLFCRLF &lt;Bitmap&gt;</code>
+ * </p>
+ *
+ * @see files.FutureFile
+ */
+public class GetchunksMessage extends GetchunkMessage {
+    private final BitSet chunks;
+
+    /**
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk requested
+     * @param chunks          Chunks requested, relative to the first chunk
+     */
+    public GetchunksMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, BitSet chunks) {
+        super(protocolVersion, "GETCHUNKS", senderId, fileId, firstChunkNo, chunks.toByteArray());
+        this.chunks = chunks;
+    }
+
+    /**
+     * Constructor for a received message, the bitmap is copied out of the packet right away
+     *
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk requested
+     * @param body            Bitmap of the chunks requested, from its position to its limit
+     */
+    public GetchunksMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, ByteBuffer body) {
+        this(protocolVersion, senderId, fileId, firstChunkNo, BitSet.valueOf(body));
+    }
+
+    /**
+     * @return Sequential numbers of the chunks requested
+     */
+    public int[] getChunkNos() {
+        return this.chunks.stream().map(i -> this.chunkNo + i).toArray();
+    }
+
+    //! Not documented
+    @Override
+    public Task createTask(Peer peer) {
+        return new GetchunksTask(this, peer);
+    }
+
+    /**
+     * @return <code>null</code>, the message is about several chunks, so it's processed on the requests worker
+     */
+    @Override
+    public ChunkKey getStripeKey() {
+        return null;
+    }
+}
@@ -1,11 +1,12 @@
 package messages;
 
+import files.ChunkKey;
 import peer.Peer;
 import tasks.Task;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.Objects;
 import java.util.concurrent.ExecutorService;
 
@@ -19,7 +20,8 @@ public abstract class Message {
     protected final String fileId;
     protected final int chunkNo;
     protected final int replicationDegree;
-    protected final byte[] body;
+    protected final ByteBuffer body;
+    private byte[] bodyBytes;
 
     /**
      * Default Constructor for a Message
@@ -33,6 +35,22 @@ public abstract class Message {
      * @param body              Chunk Body
      */
     public Message(String protocolVersion, String type, int senderId, String fileId, int chunkNo, int replicationDegree, byte[] body) {
+        this(protocolVersion, type, senderId, fileId, chunkNo, replicationDegree, ByteBuffer.wrap(body));
+        this.bodyBytes = body;
+    }
+
+    /**
+     * Constructor for a Message whose body is a view over a buffer (e.g. a slice of a received packet)
+     *
+     * @param protocolVersion   Current Protocol Version
+     * @param type              Type of Message
+     * @param senderId          Sender ID
+     * @param fileId            File ID
+     * @param chunkNo           Chunk Sequential Number
+     * @param replicationDegree Desired Replication Degree
+     * @param body              Chunk Body, from its position to its limit
+     */
+    public Message(String protocolVersion, String type, int senderId, String fileId, int chunkNo, int replicationDegree, ByteBuffer body) {
         this.protocolVersion = protocolVersion;
         this.type = type;
         this.senderId = senderId;
@@ -44,62 +62,45 @@ public abstract class Message {
 
     /**
      * Create a Message from the DatagramPacket data
+     * <p>
+     * The packet is parsed directly from its bytes: the header is tokenised in place up to the first CRLFCRLF,
+     * the numeric fields are read as ints without building intermediate Strings and the body is a read-only
+     * slice of the packet's buffer, meaning the returned Message is only valid while the buffer is not reused,
+     * if the body has to outlive the buffer it must be copied with <code>getBody</code>
+     * </p>
      *
-     * @param packet       packed data in byte array
-     * @param packetLength packed data's length
+     * @param packet Buffer containing the received datagram, from its position to its limit
      * @return The parsed Message (taking advantage of Java's polymorphism)
      * @throws Exception On error trying to parse the packet
      */
-    public static Message fromDatagramPacket(byte[] packet, int packetLength) throws Exception {
-        String packetData = new String(packet);
-        packetData = packetData.substring(0, Math.min(packetLength, packetData.length()));
-        // Splitting the packet data into two parts -> header and body, the splitter is two CRLF i.e. 2 \r\n
-        String[] parts = packetData.split("\r\n\r\n", 2);
-
-        int headerBytes = parts[0].length();
-        // as the header may have two or more spaces between the arguments, then this replace statement cleans the header
-        // we also want to trim the result so no trailing or leading spaces are present
-        parts[0] = parts[0].replaceAll("^ +| +$|( )+", "$1").trim();
-
-        // the arguments are split by a space
-        String[] args = parts[0].split(" ");
+    public static Message fromDatagramPacket(ByteBuffer packet) throws Exception {
+        HeaderReader header = new HeaderReader(packet);
 
         // saving the data
-        String version = args[0];
-        String type = args[1];
-        int senderId = Integer.parseInt(args[2]);
-        byte[] body = new byte[0];
-        if (parts.length == 2) body = Arrays.copyOfRange(packet, headerBytes + 4, packetLength);
-
-        String fileId;
-        int chunkNo;
-        int replicationDegree;
+        String version = header.nextVersion();
+        String type = header.nextType();
+        int senderId = header.nextInt();
 
         switch (type) {
             case "CHUNK":
-                fileId = args[3];
-                chunkNo = Integer.parseInt(args[4]);
-                return new ChunkMessage(version, senderId, fileId, chunkNo, body);
+                return new ChunkMessage(version, senderId, header.nextString(), header.nextInt(), header.body());
             case "DELETE":
-                fileId = args[3];
-                return new DeleteMessage(version, senderId, fileId);
+                return new DeleteMessage(version, senderId, header.nextString());
             case "PUTCHUNK":
-                fileId = args[3];
-                chunkNo = Integer.parseInt(args[4]);
-                replicationDegree = Integer.parseInt(args[5]);
-                return new PutchunkMessage(version, senderId, fileId, chunkNo, replicationDegree, body);
+                return new PutchunkMessage(version, senderId, header.nextString(), header.nextInt(), header.nextInt(), header.body(),
+                        header.nextFlag(PutchunkMessage.COMPRESSED_FLAG));
             case "REMOVED":
-                fileId = args[3];
-                chunkNo = Integer.parseInt(args[4]);
-                return new RemovedMessage(version, senderId, fileId, chunkNo);
+                return new RemovedMessage(version, senderId, header.nextString(), header.nextInt());
             case "STORED":
-                fileId = args[3];
-                chunkNo = Integer.parseInt(args[4]);
-                return new StoredMessage(version, senderId, fileId, chunkNo);
+                return new StoredMessage(version, senderId, header.nextString(), header.nextInt());
+            case "REMOVEDBATCH":
+                return new RemovedBatchMessage(version, senderId, header.nextString(), header.nextInt(), header.body());
+            case "STOREDBATCH":
+                return new StoredBatchMessage(version, senderId, header.nextString(), header.nextInt(), header.body());
             case "GETCHUNK":
-                fileId = args[3];
-                chunkNo = Integer.parseInt(args[4]);
-                return new GetchunkMessage(version, senderId, fileId, chunkNo);
+                return new GetchunkMessage(version, senderId, header.nextString(), header.nextInt());
+            case "GETCHUNKS":
+                return new GetchunksMessage(version, senderId, header.nextString(), header.nextInt(), header.body());
             case "GENERALKENOBI":
                 return new GeneralKenobi(version, senderId);
             default:
@@ -108,17 +109,145 @@ public abstract class Message {
     }
 
     /**
-     * Method to encode the address and port to a byte array, this method is used for the
-     * Restore Enhancement as we need to pass the address and port for the server socket on
-     * the CHUNK message
+     * Helper to tokenise a message header directly from the packet bytes, the header fields are separated by one or
+     * more spaces and the header ends on the first CRLFCRLF, everything after that is the body
+     */
+    private static class HeaderReader {
+        private static final String[] TYPES = {"PUTCHUNK", "STORED", "GETCHUNK", "CHUNK", "DELETE", "REMOVED", "GENERALKENOBI", "STOREDBATCH", "GETCHUNKS", "REMOVEDBATCH"};
+        private static final String[] VERSIONS = {"1.0", "2.0"};
+
+        private final ByteBuffer packet;
+        private final int headerEnd;
+        private final int bodyStart;
+        private int position;
+        private int tokenStart;
+        private int tokenEnd;
+
+        private HeaderReader(ByteBuffer packet) {
+            this.packet = packet;
+            this.position = packet.position();
+
+            int end = packet.limit();
+            int delimiter = -1;
+            for (int i = this.position; i + 3 < end; i++) {
+                if (packet.get(i) == '\r' && packet.get(i + 1) == '\n' && packet.get(i + 2) == '\r' && packet.get(i + 3) == '\n') {
+                    delimiter = i;
+                    break;
+                }
+            }
+            this.headerEnd = delimiter == -1 ? end : delimiter;
+            this.bodyStart = delimiter == -1 ? end : delimiter + 4;
+        }
+
+        /**
+         * Moves the token boundaries to the next field on the header
+         *
+         * @throws Exception If the header has no more fields
+         */
+        private void next() throws Exception {
+            while (position < headerEnd && packet.get(position) == ' ') position++;
+            tokenStart = position;
+            while (position < headerEnd && packet.get(position) != ' ') position++;
+            tokenEnd = position;
+
+            if (tokenStart == tokenEnd) throw new Exception("COULD NOT PARSE MESSAGE PACKET");
+        }
+
+        /**
+         * @param word Known word to compare with
+         * @return <code>true</code> if the current token has exactly the same bytes as the word
+         */
+        private boolean tokenEquals(String word) {
+            if (tokenEnd - tokenStart != word.length()) return false;
+            for (int i = 0; i < word.length(); i++) {
+                if (packet.get(tokenStart + i) != word.charAt(i)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return The next field as a String, reusing the known constant when the field is one of the known words
+         */
+        private String nextKnown(String[] known) throws Exception {
+            next();
+            for (String word : known) {
+                if (tokenEquals(word)) return word;
+            }
+            return tokenString();
+        }
+
+        private String nextVersion() throws Exception {
+            return nextKnown(VERSIONS);
+        }
+
+        private String nextType() throws Exception {
+            return nextKnown(TYPES);
+        }
+
+        /**
+         * @param flag Optional field to look for
+         * @return <code>true</code> if the header has another field and it is the flag
+         */
+        private boolean nextFlag(String flag) throws Exception {
+            while (position < headerEnd && packet.get(position) == ' ') position++;
+            if (position == headerEnd) return false;
+            next();
+            return tokenEquals(flag);
+        }
+
+        private String nextString() throws Exception {
+            next();
+            return tokenString();
+        }
+
+        private String tokenString() {
+            char[] chars = new char[tokenEnd - tokenStart];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) (packet.get(tokenStart + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        /**
+         * @return The next field parsed as a non negative decimal integer
+         * @throws Exception If the field is missing, is not a number or doesn't fit an int
+         */
+        private int nextInt() throws Exception {
+            next();
+            int value = 0;
+            for (int i = tokenStart; i < tokenEnd; i++) {
+                int digit = packet.get(i) - '0';
+                if (digit < 0 || digit > 9) throw new Exception("COULD NOT PARSE MESSAGE PACKET");
+                // a number that would wrap around is as malformed as one with a bad digit
+                if (value > (Integer.MAX_VALUE - digit) / 10) throw new Exception("COULD NOT PARSE MESSAGE PACKET");
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * @return A read-only slice of the packet with the bytes after the CRLFCRLF delimiter
+         */
+        private ByteBuffer body() {
+            ByteBuffer body = packet.duplicate();
+            body.limit(packet.limit()).position(bodyStart);
+            return body.slice().asReadOnlyBuffer();
+        }
+    }
+
+    /**
+     * Method to encode the address of a transfer server and the token of a chunk offered on it, this is used
+     * on the body of the enhanced CHUNK message
      *
      * @param address Address to encode
      * @param port    Port to encode
-     * @return The byte array containing the address and port in address:port format
+     * @param token   Token of the chunk on the transfer server
+     * @return The byte array containing the address, port and token in address:port#token format (token in hex)
      * @see jobs.SendChunk
+     * @see TransferServer
      */
-    public static byte[] addressPortToBytes(InetAddress address, int port) {
-        return String.format("%s:%d", address.getHostAddress(), port).getBytes(StandardCharsets.UTF_8);
+    public static byte[] transferToBytes(InetAddress address, int port, long token) {
+        return String.format("%s:%d#%x", address.getHostAddress(), port, token).getBytes(StandardCharsets.UTF_8);
     }
 
     /**
@@ -129,17 +258,57 @@ public abstract class Message {
     }
 
     /**
-     * @return The encoded full header
+     * Method to write this message's header straight into a send buffer, the default header has every field
+     * (Version, Type, SenderId, FileId, ChunkNo and ReplicationDegree), messages with less fields override this
+     *
+     * @param out Buffer where the header is written, from its position on
+     * @see MulticastService#sendMessage(Message)
      */
-    public byte[] encodeToSend() {
-        return String.format("%s %s %d %s %d %d \r\n\r\n",
-                this.protocolVersion,
-                this.type,
-                this.senderId,
-                this.fileId,
-                this.chunkNo,
-                this.replicationDegree)
-                .getBytes(StandardCharsets.UTF_8);
+    public void encodeHeader(ByteBuffer out) {
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        putField(out, this.fileId);
+        putField(out, this.chunkNo);
+        putField(out, this.replicationDegree);
+        endHeader(out);
+    }
+
+    /**
+     * Method to write a header field followed by a space, the fields are plain ASCII so each char is one byte
+     *
+     * @param out   Buffer to write to
+     * @param field Field to be written
+     */
+    protected static void putField(ByteBuffer out, String field) {
+        for (int i = 0; i < field.length(); i++) {
+            out.put((byte) field.charAt(i));
+        }
+        out.put((byte) ' ');
+    }
+
+    /**
+     * Method to write a non negative integer header field in decimal followed by a space, without creating a String
+     *
+     * @param out   Buffer to write to
+     * @param field Field to be written
+     */
+    protected static void putField(ByteBuffer out, int field) {
+        int divisor = 1;
+        while (field / divisor >= 10) divisor *= 10;
+        for (; divisor > 0; divisor /= 10) {
+            out.put((byte) ('0' + field / divisor % 10));
+        }
+        out.put((byte) ' ');
+    }
+
+    /**
+     * Method to terminate the header with the two CRLF
+     *
+     * @param out Buffer to write to
+     */
+    protected static void endHeader(ByteBuffer out) {
+        out.put((byte) '\r').put((byte) '\n').put((byte) '\r').put((byte) '\n');
     }
 
     /**
@@ -218,13 +387,53 @@ public abstract class Message {
         return chunkNo;
     }
 
+    /**
+     * @return Key on the chunks maps for the chunk this message refers to
+     */
+    public ChunkKey getChunkKey() {
+        return ChunkKey.of(fileId, chunkNo);
+    }
+
+    /**
+     * @return Key of the chunk this message is about, choosing the lane the message's task runs on, or
+     * <code>null</code> if the message is not about a single chunk
+     * @see peer.StripedExecutor
+     */
+    public ChunkKey getStripeKey() {
+        return getChunkKey();
+    }
+
     //! Not documented
     public int getReplicationDegree() {
         return replicationDegree;
     }
 
-    //! Not documented
+    /**
+     * Method to get the body as a byte array, if the body is a view over a received packet it is copied
+     * (only once) so it can be kept after the packet's buffer is reused
+     *
+     * @return The body of this message
+     */
     public byte[] getBody() {
-        return body;
+        if (bodyBytes == null) {
+            byte[] bytes = new byte[body.remaining()];
+            body.duplicate().get(bytes);
+            bodyBytes = bytes;
+        }
+        return bodyBytes;
+    }
+
+    /**
+     * @return A view over the body, so it can be written without being copied
+     */
+    public ByteBuffer getBodyBuffer() {
+        return body.duplicate();
+    }
+
+    /**
+     * @return The body length in bytes, without copying it
+     */
+    public int getBodyLength() {
+        return body.remaining();
     }
 }
@@ -1,21 +1,39 @@
 package messages;
 
+import peer.Constants;
 import peer.Dispatcher;
 import peer.Peer;
+import peer.PeerExecutors;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.InetAddress;
-import java.net.MulticastSocket;
-import java.util.Arrays;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Enumeration;
 
 /**
  * Class responsible to Send and Receive messages through multicast
+ * <p>
+ * This service is built on top of Java's NIO <code>DatagramChannel</code>, the datagrams are received directly into
+ * pooled direct buffers, so no byte arrays are allocated on the receiving path. To send, the header is encoded into a
+ * per-thread buffer (a pooled one on virtual threads) and written together with the body in a single gathering write, so the body is never copied
+ *
+ * @see BufferPool
  */
-public class MulticastService extends MulticastSocket implements Runnable {
-    private final InetAddress address;
+public class MulticastService implements Runnable {
+    private static final ThreadLocal<ByteBuffer> headerBuffer =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(Constants.HEADER_BUFFER_SIZE));
+    // on virtual threads (a thread per task) a per-thread buffer would be allocated for every message sent and only
+    // freed by the GC, so the header buffers are pooled instead
+    private static final BufferPool headerBuffers = PeerExecutors.usingVirtualThreads()
+            ? new BufferPool(Constants.HEADER_BUFFER_SIZE, Constants.HEADER_BUFFERS) : null;
+
+    private final InetSocketAddress group;
     private final Peer peer;
     private final String identifier;
+    private final DatagramChannel channel;
+    private final DatagramChannel sendChannel;
+    private final BufferPool bufferPool;
 
     /**
      * Constructor for the multicast service
@@ -27,29 +45,86 @@ public class MulticastService extends MulticastSocket implements Runnable {
      * @throws IOException On error creating the socket
      */
     public MulticastService(InetAddress address, int port, Peer peer, String identifier) throws IOException {
-        super(port);
-        this.address = address;
+        this.group = new InetSocketAddress(address, port);
         this.peer = peer;
         this.identifier = identifier;
+        this.bufferPool = new BufferPool(Constants.DATAGRAM_SIZE, Constants.RECEIVE_BUFFERS);
+
+        NetworkInterface networkInterface = multicastInterface();
+
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.SO_REUSEADDR, true)
+                // room for a burst of PUTCHUNKs while the receiving thread catches up (capped by the OS)
+                .setOption(StandardSocketOptions.SO_RCVBUF, Constants.RECEIVE_SOCKET_BUFFER)
+                .bind(new InetSocketAddress(port));
+        this.channel.join(address, networkInterface);
 
-        this.setTimeToLive(1);
-        this.joinGroup(this.address);
+        // connected to the group so that a gathering write sends a single datagram
+        this.sendChannel = DatagramChannel.open(StandardProtocolFamily.INET)
+                .setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface)
+                .setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1)
+                .setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true)
+                .connect(this.group);
         System.out.printf("[MULTICAST SERVICE] [%s] Service is now Online\n", this.identifier);
     }
 
     /**
-     * Method to send a message through multicast
+     * Method to choose the network interface used to join the multicast group, it will prefer the interface
+     * of this host's address, falling back to the first interface up that supports multicast
+     *
+     * @return The network interface for the multicast channel
+     * @throws IOException On error listing the network interfaces
+     */
+    private static NetworkInterface multicastInterface() throws IOException {
+        NetworkInterface local = NetworkInterface.getByInetAddress(InetAddress.getLocalHost());
+        if (local != null && local.isUp() && local.supportsMulticast())
+            return local;
+
+        NetworkInterface loopback = null;
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces.hasMoreElements()) {
+            NetworkInterface candidate = interfaces.nextElement();
+            if (!candidate.isUp() || !candidate.supportsMulticast()) continue;
+            if (!candidate.isLoopback()) return candidate;
+            loopback = candidate;
+        }
+        if (loopback != null)
+            return loopback;
+
+        throw new SocketException("No network interface supporting multicast");
+    }
+
+    /**
+     * Method to send a message through multicast, the header is written on this thread's send buffer and the body
+     * is sent straight from the message
      *
      * @param message Message to be sent
      * @return true if the sending operation is successful
      */
     public boolean sendMessage(Message message) {
-        byte[] buffer = message.encodeToSend();
+        ByteBuffer header = headerBuffers != null ? headerBuffers.acquire() : headerBuffer.get();
+        try {
+            header.clear();
+            message.encodeHeader(header);
+            header.flip();
+
+            return this.sendMessage(header, message.getBodyBuffer());
+        } finally {
+            if (headerBuffers != null) headerBuffers.release(header);
+        }
+    }
 
-        DatagramPacket packet = new DatagramPacket(buffer, buffer.length, this.address, this.getLocalPort());
+    /**
+     * Method to send an already encoded message through multicast, the buffers are sent as one datagram
+     * using a gathering write
+     *
+     * @param encoded Buffers with the encoded message, in order, from their position to their limit
+     * @return true if the sending operation is successful
+     */
+    public boolean sendMessage(ByteBuffer... encoded) {
         try {
-            this.send(packet);
-            // System.out.printf("[MulticastService] (%s) - Sent %s Message - bytes sent: %d%n", this.identifier, message.getType(), buffer.length);
+            this.sendChannel.write(encoded);
+            // System.out.printf("[MulticastService] (%s) - Sent Message%n", this.identifier);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -58,18 +133,20 @@ public class MulticastService extends MulticastSocket implements Runnable {
     }
 
     /**
-     * Method to be receiving packets and sending them to the dispatcher for triage right as they arrive
+     * Method to be receiving packets and sending them to the dispatcher for triage right as they arrive, each packet
+     * is received on a buffer borrowed from the pool, the dispatcher is then responsible for releasing it
      */
     @Override
     public void run() {
         while (true) {
-            byte[] buffer = new byte[65507];
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            ByteBuffer buffer = this.bufferPool.acquire();
             try {
-                this.receive(packet);
+                this.channel.receive(buffer);
+                buffer.flip();
                 // send the message to triage so it can be sent to an appropriate worker then
-                peer.getTriageExecutor().submit(new Dispatcher(Arrays.copyOf(buffer, buffer.length), peer, packet.getLength()));
+                peer.getTriageExecutor().submit(new Dispatcher(buffer, peer, this.bufferPool));
             } catch (Exception e) {
+                this.bufferPool.release(buffer);
                 e.printStackTrace();
             }
         }
@@ -4,26 +4,68 @@ import peer.Peer;
 import tasks.PutchunkTask;
 import tasks.Task;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 
 /**
  * PUTCHUNK Message Data Class
+ * <p>
+ * On the enhanced version a chunk whose body is compressed has an extra header field after the replication degree:
+ * <code>&lt;Version&gt; PUTCHUNK &lt;SenderId&gt; &lt;FileId&gt; &lt;ChunkNo&gt; &lt;ReplicationDeg&gt; DEFLATE
+ * CRLFCRLF &lt;Body&gt;</code>
+ * </p>
  */
 public class PutchunkMessage extends Message {
+    public static final String COMPRESSED_FLAG = "DEFLATE";
+
+    private final boolean compressed;
+
     //! Not documented
     public PutchunkMessage(String protocolVersion, int senderId, String fileId, int chunkNo, int replicationDegree, byte[] body) {
         super(protocolVersion, "PUTCHUNK", senderId, fileId, chunkNo, replicationDegree, body);
+        this.compressed = false;
     }
 
-    //! Not documented
-    @Override
-    public byte[] encodeToSend() {
-        byte[] header = super.encodeToSend();
+    /**
+     * @param protocolVersion   Current Protocol Version
+     * @param senderId          Sender ID
+     * @param fileId            File ID
+     * @param chunkNo           Chunk Sequential Number
+     * @param replicationDegree Desired Replication Degree
+     * @param body              Chunk Body, from its position to its limit
+     * @param compressed        <code>true</code> if the body is compressed
+     */
+    public PutchunkMessage(String protocolVersion, int senderId, String fileId, int chunkNo, int replicationDegree, ByteBuffer body, boolean compressed) {
+        super(protocolVersion, "PUTCHUNK", senderId, fileId, chunkNo, replicationDegree, body);
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return <code>true</code> if the body is compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
 
-        byte[] toSend = new byte[header.length + this.body.length];
-        System.arraycopy(header, 0, toSend, 0, header.length);
-        System.arraycopy(this.body, 0, toSend, header.length, body.length);
-        return toSend;
+    /**
+     * Method to write the header, with the compressed flag if the body is compressed
+     *
+     * @param out Buffer where the header is written, from its position on
+     */
+    @Override
+    public void encodeHeader(ByteBuffer out) {
+        if (!this.compressed) {
+            super.encodeHeader(out);
+            return;
+        }
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        putField(out, this.fileId);
+        putField(out, this.chunkNo);
+        putField(out, this.replicationDegree);
+        putField(out, COMPRESSED_FLAG);
+        endHeader(out);
     }
 
     //! Not documented
@@ -0,0 +1,63 @@
+package messages;
+
+import files.ChunkKey;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * REMOVEDBATCH Message Data Class, a REMOVED for several chunks of the same file (enhanced peers only)
+ * <p>
+ * Same layout as the STOREDBATCH message, the header has the first chunk number and the body is a bitmap of the
+ * chunks removed: <code>&lt;Version&gt; REMOVEDBATCH &lt;SenderId&gt; &lt;FileId&gt; &lt;FirstChunkNo&gt; CRLFCRLF
+ * &lt;Bitmap&gt;</code>
+ * </p>
+ *
+ * @see peer.EvictionEngine
+ * @see StoredBatchMessage
+ */
+public class RemovedBatchMessage extends RemovedMessage {
+    private final BitSet chunks;
+
+    /**
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk removed
+     * @param chunks          Chunks removed, relative to the first chunk
+     */
+    public RemovedBatchMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, BitSet chunks) {
+        super(protocolVersion, "REMOVEDBATCH", senderId, fileId, firstChunkNo, chunks.toByteArray());
+        this.chunks = chunks;
+    }
+
+    /**
+     * Constructor for a received message, the bitmap is copied out of the packet right away
+     *
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk removed
+     * @param body            Bitmap of the chunks removed, from its position to its limit
+     */
+    public RemovedBatchMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, ByteBuffer body) {
+        this(protocolVersion, senderId, fileId, firstChunkNo, BitSet.valueOf(body));
+    }
+
+    /**
+     * @return Sequential numbers of the chunks removed by the sender
+     */
+    @Override
+    public int[] getChunkNos() {
+        return this.chunks.stream().map(i -> this.chunkNo + i).toArray();
+    }
+
+    /**
+     * @return <code>null</code>, the message is about several chunks, so it's parsed on the acknowledgments worker
+     * and each chunk is then handed to its lane
+     */
+    @Override
+    public ChunkKey getStripeKey() {
+        return null;
+    }
+}
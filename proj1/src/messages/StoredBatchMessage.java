@@ -0,0 +1,62 @@
+package messages;
+
+import files.ChunkKey;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * STOREDBATCH Message Data Class, a STORED for several chunks of the same file (enhanced peers only)
+ * <p>
+ * The header has the first chunk number and the body is a bitmap of the chunks stored, bit <i>i</i> set meaning
+ * chunk <i>first + i</i> was stored: <code>&lt;Version&gt; STOREDBATCH &lt;SenderId&gt; &lt;FileId&gt;
+ * &lt;FirstChunkNo&gt; CRLFCRLF &lt;Bitmap&gt;</code>
+ * </p>
+ *
+ * @see StoredCoalescer
+ */
+public class StoredBatchMessage extends StoredMessage {
+    private final BitSet chunks;
+
+    /**
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk stored
+     * @param chunks          Chunks stored, relative to the first chunk
+     */
+    public StoredBatchMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, BitSet chunks) {
+        super(protocolVersion, "STOREDBATCH", senderId, fileId, firstChunkNo, chunks.toByteArray());
+        this.chunks = chunks;
+    }
+
+    /**
+     * Constructor for a received message, the bitmap is copied out of the packet right away
+     *
+     * @param protocolVersion Current Protocol Version
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param firstChunkNo    Sequential Number of the first chunk stored
+     * @param body            Bitmap of the chunks stored, from its position to its limit
+     */
+    public StoredBatchMessage(String protocolVersion, int senderId, String fileId, int firstChunkNo, ByteBuffer body) {
+        this(protocolVersion, senderId, fileId, firstChunkNo, BitSet.valueOf(body));
+    }
+
+    /**
+     * @return Sequential numbers of the chunks stored by the sender
+     */
+    @Override
+    public int[] getChunkNos() {
+        return this.chunks.stream().map(i -> this.chunkNo + i).toArray();
+    }
+
+    /**
+     * @return <code>null</code>, the message is about several chunks, so it's parsed on the acknowledgments worker
+     * and each chunk is then handed to its lane
+     */
+    @Override
+    public ChunkKey getStripeKey() {
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package messages;
+
+import peer.Constants;
+import peer.Peer;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalescer for the STORED messages sent by this peer
+ * <p>
+ * Backing up a file sends a STORED per chunk per peer, thousands of tiny datagrams that every peer has to parse.
+ * On the enhanced version the STOREDs of a file are held for {@link Constants#STORED_BATCH_DELAY} ms and sent as
+ * a single STOREDBATCH message, only for initiators on the enhanced version too as a vanilla one can't parse it.
+ * The batch is sent early once it has {@link Constants#STORED_BATCH_CHUNKS} chunks
+ * or when a chunk doesn't fit its bitmap. A batch with a single chunk is sent as a plain STORED.
+ * </p>
+ *
+ * @see StoredBatchMessage
+ */
+public class StoredCoalescer {
+    private final Peer peer;
+    // fileId -> STOREDs waiting to be sent
+    private final Map<String, Batch> batches = new HashMap<>();
+
+    /**
+     * @param peer Peer sending the STORED messages
+     */
+    public StoredCoalescer(Peer peer) {
+        this.peer = peer;
+    }
+
+    /**
+     * Method to send a STORED message, as part of a batch if both this peer and the chunk's initiator are on the
+     * enhanced version, right away otherwise
+     *
+     * @param message          STORED message to be sent
+     * @param initiatorVersion Protocol version of the PUTCHUNK being answered
+     */
+    public void send(Message message, String initiatorVersion) {
+        if (!this.peer.isEnhanced() || initiatorVersion.equals("1.0")) {
+            this.peer.getMulticastControl().sendMessage(message);
+            return;
+        }
+
+        String fileId = message.getFileId();
+        int chunkNo = message.getChunkNo();
+        Batch full = null;
+        Batch batch;
+        synchronized (this) {
+            batch = this.batches.get(fileId);
+            if (batch != null && !batch.fits(chunkNo)) {
+                this.batches.remove(fileId);
+                full = batch;
+                batch = null;
+            }
+            if (batch == null) {
+                Batch created = new Batch(fileId);
+                this.batches.put(fileId, created);
+                this.peer.getRequestsExecutor().schedule(() -> this.flush(created), Constants.STORED_BATCH_DELAY, TimeUnit.MILLISECONDS);
+                batch = created;
+            }
+
+            batch.add(chunkNo);
+            if (batch.size() < Constants.STORED_BATCH_CHUNKS) batch = null;
+            else this.batches.remove(fileId);
+        }
+
+        if (full != null) this.peer.getMulticastControl().sendMessage(full.toMessage());
+        if (batch != null) this.peer.getMulticastControl().sendMessage(batch.toMessage());
+    }
+
+    /**
+     * Method to send a batch once its delay is over, unless it was already sent for being full
+     *
+     * @param batch Batch to be sent
+     */
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (!this.batches.remove(batch.fileId, batch)) return;
+        }
+        this.peer.getMulticastControl().sendMessage(batch.toMessage());
+    }
+
+    /**
+     * STOREDs of a file waiting to be sent, the bitmap is indexed from a base close to the first chunk so it stays
+     * small no matter the chunk numbers
+     */
+    private class Batch {
+        private final String fileId;
+        private final BitSet chunks = new BitSet();
+        private int base = -1;
+
+        Batch(String fileId) {
+            this.fileId = fileId;
+        }
+
+        /**
+         * @return <code>true</code> if the chunk can be added without the bitmap spanning more than
+         * {@link Constants#STORED_BATCH_SPAN} chunks
+         */
+        boolean fits(int chunkNo) {
+            if (this.base < 0) return true;
+            if (chunkNo < this.base) return false;
+            int first = Math.min(this.chunks.nextSetBit(0), chunkNo - this.base);
+            int last = Math.max(this.chunks.length() - 1, chunkNo - this.base);
+            return last - first < Constants.STORED_BATCH_SPAN;
+        }
+
+        void add(int chunkNo) {
+            if (this.base < 0) this.base = Math.max(0, chunkNo - Constants.STORED_BATCH_SPAN + 1);
+            this.chunks.set(chunkNo - this.base);
+        }
+
+        int size() {
+            return this.chunks.cardinality();
+        }
+
+        Message toMessage() {
+            int first = this.chunks.nextSetBit(0);
+            if (this.size() == 1)
+                return new StoredMessage(peer.getProtocolVersion(), peer.getPeerId(), this.fileId, this.base + first);
+            return new StoredBatchMessage(peer.getProtocolVersion(), peer.getPeerId(), this.fileId, this.base + first,
+                    this.chunks.get(first, this.chunks.length()));
+        }
+    }
+}
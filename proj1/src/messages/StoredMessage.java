@@ -4,7 +4,7 @@ import peer.Peer;
 import tasks.StoredTask;
 import tasks.Task;
 
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -16,15 +16,36 @@ public class StoredMessage extends Message {
         super(protocolVersion, "STORED", senderId, fileId, chunkNo, 0, new byte[0]);
     }
 
+    /**
+     * Constructor for the STORED messages carrying more than one chunk
+     *
+     * @param protocolVersion Current Protocol Version
+     * @param type            Type of Message
+     * @param senderId        Sender ID
+     * @param fileId          File ID
+     * @param chunkNo         First Chunk Sequential Number
+     * @param body            Message Body
+     */
+    protected StoredMessage(String protocolVersion, String type, int senderId, String fileId, int chunkNo, byte[] body) {
+        super(protocolVersion, type, senderId, fileId, chunkNo, 0, body);
+    }
+
+    /**
+     * @return Sequential numbers of the chunks stored by the sender
+     */
+    public int[] getChunkNos() {
+        return new int[]{this.chunkNo};
+    }
+
     //! Not documented
     @Override
-    public byte[] encodeToSend() {
-        return String.format("%s %s %s %s %d \r\n\r\n",
-                this.protocolVersion,
-                this.type,
-                this.senderId,
-                this.fileId,
-                this.chunkNo).getBytes(StandardCharsets.UTF_8);
+    public void encodeHeader(ByteBuffer out) {
+        putField(out, this.protocolVersion);
+        putField(out, this.type);
+        putField(out, this.senderId);
+        putField(out, this.fileId);
+        putField(out, this.chunkNo);
+        endHeader(out);
     }
 
     //! Not documented
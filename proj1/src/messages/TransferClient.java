@@ -0,0 +1,112 @@
+package messages;
+
+import peer.Constants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Client side of the chunk transfers of the Restore Enhancement
+ * <p>
+ * The connections to each peer's transfer server are kept open after a chunk is received and reused for the next
+ * ones, so a restore only pays for a handful of TCP handshakes per peer instead of one per chunk. Up to
+ * {@link Constants#TRANSFER_POOL_SIZE} idle connections are kept per peer.
+ * </p>
+ *
+ * @see TransferServer
+ */
+public class TransferClient {
+    // server -> idle connections
+    private final ConcurrentHashMap<InetSocketAddress, Queue<Connection>> idle = new ConcurrentHashMap<>();
+
+    /**
+     * Method to claim a chunk offered by a peer
+     *
+     * @param server Address of the peer's transfer server
+     * @param token  Token received on the CHUNK message
+     * @return The chunk's body
+     * @throws IOException On error receiving the chunk or if the peer no longer has the chunk to send
+     */
+    public byte[] fetch(InetSocketAddress server, long token) throws IOException {
+        byte[] body = null;
+        boolean claimed = false;
+
+        Connection connection = this.idle.computeIfAbsent(server, k -> new ConcurrentLinkedQueue<>()).poll();
+        if (connection != null) {
+            try {
+                body = this.claim(server, connection, token);
+                claimed = true;
+            } catch (IOException e) {
+                // the idle connection may have been closed by the peer, trying once on a new one
+                connection.close();
+            }
+        }
+        if (!claimed) {
+            connection = new Connection(server);
+            try {
+                body = this.claim(server, connection, token);
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        if (body == null) throw new IOException("The peer no longer has the chunk to send");
+        return body;
+    }
+
+    /**
+     * Helper to claim a chunk over a connection, the connection is put back on the pool once the reply is read
+     *
+     * @return The chunk's body, or <code>null</code> if the token is unknown to the peer
+     */
+    private byte[] claim(InetSocketAddress server, Connection connection, long token) throws IOException {
+        connection.output.writeLong(token);
+        connection.output.flush();
+
+        int length = connection.input.readInt();
+        if (length > Constants.CHUNK_SIZE) throw new IOException("Invalid chunk length: " + length);
+
+        byte[] body = length < 0 ? null : new byte[length];
+        if (body != null) connection.input.readFully(body);
+
+        Queue<Connection> pool = this.idle.get(server);
+        if (pool.size() < Constants.TRANSFER_POOL_SIZE) pool.add(connection);
+        else connection.close();
+
+        return body;
+    }
+
+    /**
+     * Connection to a peer's transfer server
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        Connection(InetSocketAddress server) throws IOException {
+            this.socket = new Socket();
+            this.socket.connect(server, Constants.TRANSFER_TIMEOUT);
+            this.socket.setSoTimeout(Constants.TRANSFER_TIMEOUT);
+            this.socket.setTcpNoDelay(true);
+            this.input = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+            this.output = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                this.socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package messages;
+
+import files.SavedChunk;
+import peer.ChunkStore;
+import peer.Constants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TCP server used by the Restore Enhancement to send chunks to the initiator peer
+ * <p>
+ * Each enhanced peer runs a single server on a fixed port ({@link Constants#TRANSFER_BASE_PORT} + Peer ID), handled
+ * by one thread with a selector. A chunk to be sent is offered to the server, which hands out a transfer token that
+ * goes on the CHUNK message instead of the port of a new server socket. The initiator keeps its connections open
+ * and asks for any number of chunks over the same connection, one after the other:
+ * </p>
+ * <ul>
+ *     <li>Request: the token (8 bytes)</li>
+ *     <li>Reply: the body length (4 bytes, -1 if the token is unknown or expired) followed by the body</li>
+ * </ul>
+ * <p>
+ * Offers not claimed within {@link Constants#TRANSFER_OFFER_TIMEOUT} seconds (e.g. another peer provided the chunk
+ * first) are dropped.
+ * </p>
+ *
+ * @see TransferClient
+ * @see jobs.SendChunk
+ */
+public class TransferServer implements Runnable {
+    private final int port;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    // token -> chunk waiting to be claimed
+    private final ConcurrentHashMap<Long, Offer> offers = new ConcurrentHashMap<>();
+    // tokens must not be guessable from the ones seen on the MDR channel, or any peer could claim the chunks
+    private final SecureRandom tokens = new SecureRandom();
+
+    /**
+     * Constructor for the transfer server, the port is bound right away
+     *
+     * @param port Port to listen on
+     * @throws IOException On error binding the port
+     */
+    public TransferServer(int port) throws IOException {
+        this.port = port;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        this.server.bind(new InetSocketAddress(port));
+        this.server.configureBlocking(false);
+        this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+        System.out.printf("[TRANSFER SERVICE] Listening on port %d\n", port);
+    }
+
+    /**
+     * Method to offer a chunk to be claimed by the initiator, the chunk is sent straight from the disk with
+     * <code>transferTo</code> (from the page cache to the socket, without going through the Java heap), so its
+     * body is never loaded
+     *
+     * @param chunk Chunk to be sent
+     * @param file  Region of the file holding the chunk's body, closed once the chunk is sent or the offer expires
+     * @return The token the initiator claims the chunk with
+     */
+    public long offer(SavedChunk chunk, ChunkStore.Region file) {
+        Offer offer = new Offer(chunk, file, System.currentTimeMillis() + Constants.TRANSFER_OFFER_TIMEOUT * 1000L);
+        long token;
+        do {
+            token = this.tokens.nextLong();
+        } while (this.offers.putIfAbsent(token, offer) != null);
+        return token;
+    }
+
+    /**
+     * Method to drop the offers that were not claimed in time, releasing their chunks
+     */
+    public void expireOffers() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<Long, Offer> entry : this.offers.entrySet()) {
+            Offer offer = entry.getValue();
+            // the offer is only released if it's still here, a claim racing the expiry owns it otherwise
+            if (offer.expires <= now && this.offers.remove(entry.getKey(), offer)) offer.release();
+        }
+    }
+
+    /**
+     * @return The port this server is listening on
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Method to run the server, every connection is handled on this thread
+     */
+    @Override
+    public void run() {
+        while (this.server.isOpen()) {
+            try {
+                this.selector.select();
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) this.accept();
+                        if (key.isValid() && key.isReadable()) this.read(key);
+                        if (key.isValid() && key.isWritable()) this.write(key);
+                    } catch (IOException e) {
+                        // the initiator dropped the connection, it will ask for the chunks again
+                        if (key.attachment() instanceof Connection) this.close(key);
+                        else e.printStackTrace();
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel client = this.server.accept();
+        if (client == null) return;
+        client.configureBlocking(false);
+        client.register(this.selector, SelectionKey.OP_READ, new Connection());
+    }
+
+    /**
+     * Closes a connection, the chunks it didn't finish sending can be requested again
+     */
+    private void close(SelectionKey key) throws IOException {
+        key.cancel();
+        key.channel().close();
+
+        Connection connection = (Connection) key.attachment();
+        if (connection == null) return;
+        for (Reply reply : connection.replies) {
+            if (reply.offer != null) reply.offer.release();
+        }
+        connection.replies.clear();
+    }
+
+    /**
+     * Reads the tokens sent on a connection and queues the replies
+     */
+    private void read(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel client = (SocketChannel) key.channel();
+
+        if (client.read(connection.request) < 0) {
+            this.close(key);
+            return;
+        }
+        if (connection.request.hasRemaining()) return;
+
+        connection.request.flip();
+        long token = connection.request.getLong();
+        connection.request.clear();
+
+        Offer offer = this.offers.remove(token);
+        long size = offer != null ? offer.size() : -1;
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        header.putInt((int) size).flip();
+        connection.replies.add(new Reply(header, size >= 0 ? offer : null));
+        if (offer != null && size < 0) offer.release();
+
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    /**
+     * Writes the queued replies of a connection, as much as the socket takes
+     */
+    private void write(SelectionKey key) throws IOException {
+        Connection connection = (Connection) key.attachment();
+        SocketChannel client = (SocketChannel) key.channel();
+
+        while (!connection.replies.isEmpty()) {
+            Reply reply = connection.replies.peek();
+            if (!reply.writeTo(client)) return;
+            connection.replies.poll();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Chunk waiting to be claimed
+     */
+    private static class Offer {
+        private final SavedChunk chunk;
+        private final ChunkStore.Region file;
+        private final long expires;
+
+        Offer(SavedChunk chunk, ChunkStore.Region file, long expires) {
+            this.chunk = chunk;
+            this.file = file;
+            this.expires = expires;
+        }
+
+        /**
+         * @return Size of the chunk's body, or -1 if it's not a valid chunk
+         */
+        long size() {
+            long size = this.file.getLength();
+            return size <= Constants.CHUNK_SIZE ? size : -1;
+        }
+
+        /**
+         * Closes the chunk's file and lets the chunk be requested again
+         */
+        void release() {
+            try {
+                this.file.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.chunk.setBeingHandled(false);
+        }
+    }
+
+    /**
+     * Reply to a token: the length followed by the chunk's body, if there's a chunk to send
+     */
+    private static class Reply {
+        private final ByteBuffer header;
+        private final Offer offer;
+        private long position = 0;
+
+        Reply(ByteBuffer header, Offer offer) {
+            this.header = header;
+            this.offer = offer;
+        }
+
+        /**
+         * Writes as much of the reply as the socket takes
+         *
+         * @return <code>true</code> once the whole reply is written
+         */
+        boolean writeTo(SocketChannel client) throws IOException {
+            if (this.header.hasRemaining()) {
+                client.write(this.header);
+                if (this.header.hasRemaining()) return false;
+            }
+            if (this.offer == null) return true;
+
+            long size = this.offer.file.getLength();
+            while (this.position < size) {
+                long sent = this.offer.file.getChannel().transferTo(this.offer.file.getPosition() + this.position, size - this.position, client);
+                if (sent == 0) return false;
+                this.position += sent;
+            }
+
+            this.offer.release();
+            System.out.printf("[GETCHUNK] [TCP] Sent %s\n", this.offer.chunk.getChunkId());
+            return true;
+        }
+    }
+
+    /**
+     * State of a connection: the token being read and the replies waiting to be written
+     */
+    private static class Connection {
+        private final ByteBuffer request = ByteBuffer.allocate(Long.BYTES);
+        private final Queue<Reply> replies = new ArrayDeque<>();
+    }
+}
@@ -0,0 +1,158 @@
+package peer;
+
+import files.ChunkKey;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache for the bodies of the chunks stored on this peer, used when a chunk has to be read from disk to be sent
+ * (GETCHUNK on the vanilla protocol, re-backups after a REMOVED)
+ * <p>
+ * The bodies are kept off the Java heap on direct buffers, up to a budget of bytes ({@link Constants#CHUNK_CACHE_SIZE},
+ * can be changed with <code>-Dpeer.chunkCache=bytes</code>, 0 disables the cache), evicting the least recently used
+ * chunks first. Concurrent reads of a chunk that is not cached share a single disk read. The buffers handed out are
+ * read-only views, so an evicted body stays valid for whoever is still sending it.
+ * </p>
+ */
+public class ChunkCache {
+    private final long budget;
+    // guarded by this, in access order (least recently used first)
+    private final LinkedHashMap<ChunkKey, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    // chunks being read from disk
+    private final ConcurrentHashMap<ChunkKey, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param budget Maximum number of bytes kept on the cache
+     */
+    public ChunkCache(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return Budget of the cache, from the system property if it's set
+     */
+    public static long configuredBudget() {
+        return Long.getLong(Constants.CHUNK_CACHE_PROPERTY, Constants.CHUNK_CACHE_SIZE);
+    }
+
+    /**
+     * Method to get a chunk's body, from the cache or from the disk
+     *
+     * @param key    Key of the chunk
+     * @param loader Reads the chunk's body from the disk into a read-only direct buffer
+     * @return A read-only buffer with the chunk's body
+     * @throws IOException On error reading the chunk's body
+     */
+    public ByteBuffer get(ChunkKey key, Loader loader) throws IOException {
+        ByteBuffer cached;
+        synchronized (this) {
+            cached = this.entries.get(key);
+        }
+        if (cached != null) {
+            this.hits.increment();
+            return cached.duplicate();
+        }
+
+        CompletableFuture<ByteBuffer> load = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> running = this.loading.putIfAbsent(key, load);
+        if (running != null) {
+            // someone else is reading it already
+            this.hits.increment();
+            return await(running).duplicate();
+        }
+
+        this.misses.increment();
+        try {
+            ByteBuffer body = loader.load();
+            // not cached if the chunk was invalidated meanwhile
+            if (this.loading.remove(key, load)) this.put(key, body);
+            load.complete(body);
+            return body.duplicate();
+        } catch (IOException e) {
+            this.loading.remove(key, load);
+            load.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Method to drop a chunk from the cache, used when the chunk is deleted or written again
+     *
+     * @param key Key of the chunk
+     */
+    public void invalidate(ChunkKey key) {
+        this.loading.remove(key);
+        synchronized (this) {
+            ByteBuffer removed = this.entries.remove(key);
+            if (removed != null) this.size -= removed.capacity();
+        }
+    }
+
+    /**
+     * Helper to add a body to the cache, evicting the least recently used ones until it fits the budget
+     */
+    private synchronized void put(ChunkKey key, ByteBuffer body) {
+        if (body.capacity() > this.budget) return;
+
+        ByteBuffer previous = this.entries.put(key, body);
+        this.size += body.capacity() - (previous != null ? previous.capacity() : 0);
+
+        Iterator<Map.Entry<ChunkKey, ByteBuffer>> eldest = this.entries.entrySet().iterator();
+        while (this.size > this.budget && eldest.hasNext()) {
+            this.size -= eldest.next().getValue().capacity();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Helper to wait for a read started by another thread
+     */
+    private static ByteBuffer await(CompletableFuture<ByteBuffer> load) throws IOException {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw e;
+        }
+    }
+
+    /**
+     * @return Number of reads served without going to disk
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return Number of reads that went to disk
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return Number of bytes on the cache
+     */
+    public synchronized long getSize() {
+        return this.size;
+    }
+
+    /**
+     * Reads a chunk's body that is not cached
+     */
+    public interface Loader {
+        //! Not documented
+        ByteBuffer load() throws IOException;
+    }
+}
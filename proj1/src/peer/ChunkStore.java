@@ -0,0 +1,148 @@
+package peer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Storage engine for the bodies of the chunks stored on this peer
+ * <p>
+ * Bodies are addressed by the hash of their content, the Peer's Internal State keeps track of which chunks reference
+ * each body and only writes a body that is not stored yet, and deletes it once no chunk references it. There are two
+ * engines, picked with <code>-Dpeer.chunkStore=segment|file</code>:
+ * </p>
+ * <ul>
+ *     <li>{@link SegmentChunkStore} (default): bodies appended to large segment files</li>
+ *     <li>{@link FileChunkStore}: a file per body</li>
+ * </ul>
+ *
+ * @see PeerInternalState#storeChunk(files.SavedChunk)
+ */
+public interface ChunkStore extends Closeable {
+    /**
+     * Method to load the configured engine
+     *
+     * @param directory Peer's directory, the engine keeps its files on a folder inside it
+     * @return The engine
+     * @throws IOException On error opening the engine's files
+     */
+    static ChunkStore load(String directory) throws IOException {
+        if ("file".equals(System.getProperty(Constants.CHUNK_STORE_PROPERTY)))
+            return new FileChunkStore(FileChunkStore.directoryOf(directory));
+        return new SegmentChunkStore(SegmentChunkStore.directoryOf(directory));
+    }
+
+    /**
+     * Method to store a body, the address must not be stored already
+     *
+     * @param address Hash of the body
+     * @param body    Body to be stored
+     * @throws IOException On error writing the body
+     */
+    void write(String address, byte[] body) throws IOException;
+
+    /**
+     * Method to read a body into memory
+     *
+     * @param address Hash of the body
+     * @return A read-only direct buffer with the body
+     * @throws IOException If the body is not stored or could not be read
+     */
+    ByteBuffer read(String address) throws IOException;
+
+    /**
+     * Method to open a body so it can be sent without being loaded, with <code>transferTo</code>
+     *
+     * @param address Hash of the body
+     * @return The region of a file holding the body, to be closed by the caller
+     * @throws IOException If the body is not stored
+     */
+    Region open(String address) throws IOException;
+
+    /**
+     * Method to make every body written so far durable, until then a crash can lose or truncate them
+     *
+     * @throws IOException On error syncing the engine's files
+     * @see GroupCommitter
+     */
+    void force() throws IOException;
+
+    /**
+     * Method to delete a body
+     *
+     * @param address Hash of the body
+     * @return Number of bytes freed, 0 if the body was not stored
+     * @throws IOException On error deleting the body
+     */
+    long delete(String address) throws IOException;
+
+    /**
+     * @param address Hash of the body
+     * @return <code>true</code> if the body is stored
+     */
+    boolean contains(String address);
+
+    /**
+     * @return Addresses of every body stored
+     */
+    List<String> addresses();
+
+    /**
+     * @return Bytes the engine uses on disk besides the bodies it stores (e.g. deleted bodies not reclaimed yet),
+     * used to get the occupation from the directory size
+     */
+    long getOverhead();
+
+    /**
+     * @return Folder holding the engine's files
+     */
+    Path getDirectory();
+
+    /**
+     * Method to run the engine's background work, called from time to time
+     */
+    void maintain();
+
+    /**
+     * Region of a file holding a body, closing it closes the file
+     */
+    final class Region implements Closeable {
+        private final FileChannel channel;
+        private final long position;
+        private final long length;
+
+        /**
+         * @param channel  Channel over the file, owned by the region from now on
+         * @param position Position of the body on the file
+         * @param length   Length of the body
+         */
+        public Region(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.length = length;
+        }
+
+        //! Not documented
+        public FileChannel getChannel() {
+            return channel;
+        }
+
+        //! Not documented
+        public long getPosition() {
+            return position;
+        }
+
+        //! Not documented
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -10,4 +10,44 @@ public class Constants {
     public final static int ACKS_WORKERS = 128;
     public final static int TRIAGE_WORKERS = 64;
     public final static int IO_WORKERS = 16;
+    public final static int DATAGRAM_SIZE = 65507; // max UDP payload
+    public final static int RECEIVE_BUFFERS = 64; // idle receive buffers kept per channel
+    public final static int RECEIVE_SOCKET_BUFFER = 4 * 1024 * 1024; // OS receive buffer per channel
+    public final static int JOURNAL_CHECKPOINT_RECORDS = 10000; // journal records before a new snapshot
+    public final static int OCCUPATION_RECONCILE_PERIOD = 300; // seconds between occupation checks against the disk
+    public final static int HEADER_BUFFER_SIZE = 1024; // per thread buffer to encode message headers
+    public final static int HEADER_BUFFERS = 256; // idle header buffers kept when running on virtual threads
+    public final static int BACKUP_INITIAL_WINDOW = 8; // chunks in flight at the start of a backup
+    public final static int BACKUP_MIN_WINDOW = 2;
+    public final static int BACKUP_MAX_WINDOW = 512;
+    public final static int BACKUP_DECREASE_INTERVAL = 1000; // ms, losses closer than this only shrink the window once
+    public final static String VIRTUAL_THREADS_PROPERTY = "peer.virtualThreads"; // -Dpeer.virtualThreads=true
+    public final static int RESTORE_IN_FLIGHT = 256; // chunks requested at a time while restoring a file
+    public final static int RESTORE_BATCH = 64; // chunks asked for on each GETCHUNKS message
+    public final static int TRANSFER_BASE_PORT = 9000; // TCP transfer server of peer N listens on this + N
+    public final static int TRANSFER_OFFER_TIMEOUT = 10; // seconds a chunk waits on the transfer server to be claimed
+    public final static int TRANSFER_TIMEOUT = 2000; // ms to connect to or hear back from a transfer server
+    public final static int TRANSFER_POOL_SIZE = 4; // idle connections kept to each peer's transfer server
+    public final static long CHUNK_CACHE_SIZE = 16 * 1024 * 1024; // bytes of chunk bodies kept off-heap to be sent
+    public final static String CHUNK_CACHE_PROPERTY = "peer.chunkCache"; // -Dpeer.chunkCache=bytes
+    public final static int STRIPES = 32; // lanes running the per chunk work, each chunk always on the same lane
+    public final static String STRIPES_PROPERTY = "peer.stripes"; // -Dpeer.stripes=N
+    public final static int STORED_BATCH_DELAY = 5; // ms a STORED waits for others of the same file
+    public final static int STORED_BATCH_CHUNKS = 256; // STOREDs that make a batch be sent right away
+    public final static int STORED_BATCH_SPAN = 1024; // chunk numbers covered by a batch's bitmap (128B)
+    public final static String CHUNK_STORE_PROPERTY = "peer.chunkStore"; // -Dpeer.chunkStore=segment|file
+    public final static int CONTENT_LOCKS = 64; // locks guarding the writes and deletes of the chunk bodies
+    public final static long SEGMENT_SIZE = 64 * 1024 * 1024; // bytes appended to a segment before starting a new one
+    public final static double SEGMENT_DEAD_RATIO = 0.5; // share of dead bytes that gets a segment compacted
+    public final static int SEGMENT_COMPACTION_PERIOD = 60; // seconds between compaction runs
+    public final static int FOLDER_SWEEP_PERIOD = 600; // seconds between sweeps of the empty folders
+    public final static String EVICTION_POLICY_PROPERTY = "peer.evictionPolicy"; // -Dpeer.evictionPolicy=surplus|size|lru
+    public final static int REMOVED_BATCH_SPAN = 1024; // chunk numbers covered by a REMOVEDBATCH's bitmap (128B)
+    public final static int REMOVED_BURST = 32; // REMOVED messages sent at once after an eviction
+    public final static int REMOVED_INTERVAL = 10; // ms between bursts of REMOVED messages
+    public final static String DURABILITY_PROPERTY = "peer.durability"; // -Dpeer.durability=group|none
+    public final static int GROUP_COMMIT_SIZE = 64; // chunk writes that make a group be synced right away
+    public final static String GROUP_COMMIT_SIZE_PROPERTY = "peer.groupCommitSize"; // -Dpeer.groupCommitSize=N
+    public final static int GROUP_COMMIT_DELAY = 2; // ms a chunk write waits for others before being synced
+    public final static String GROUP_COMMIT_DELAY_PROPERTY = "peer.groupCommitDelay"; // -Dpeer.groupCommitDelay=ms
 }
@@ -1,46 +1,77 @@
 package peer;
 
+import files.ChunkKey;
+import messages.BufferPool;
 import messages.Message;
+import tasks.Task;
 
+import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
 
 /**
  * Dispatcher to process messages and start tasks (works like triage)
  */
 public class Dispatcher implements Runnable {
-    private final byte[] packet;
+    private final ByteBuffer packet;
     private final Peer peer;
-    private final int packetLength;
+    private final BufferPool bufferPool;
 
     /**
      * Constructor for this Dispatcher
      *
-     * @param packet       Packet received on the multicast channel
-     * @param peer         Peer responsible for the triage
-     * @param packetLength Size of the packet
+     * @param packet     Packet received on the multicast channel, ready to be read
+     * @param peer       Peer responsible for the triage
+     * @param bufferPool Pool owning the packet's buffer, the buffer is released once the task created for the
+     *                   packet finishes (or right away if the packet is discarded)
      */
-    public Dispatcher(byte[] packet, Peer peer, int packetLength) {
+    public Dispatcher(ByteBuffer packet, Peer peer, BufferPool bufferPool) {
         this.packet = packet;
         this.peer = peer;
-        this.packetLength = packetLength;
+        this.bufferPool = bufferPool;
     }
 
     /**
      * Method to perform the triage of the received packet, it will create an appropriate
      * message and start an also appropriate task
+     * <p>
+     * The message is parsed in place, so the packet's buffer is only given back to the pool after the task
+     * is done with it
+     * </p>
+     * <p>
+     * Messages about a chunk run on the chunk's lane of the striped executor, so all the events of a chunk are
+     * processed one at a time and in the order they were received, the other messages go to their worker
+     * </p>
      */
     @Override
     public void run() {
+        boolean handedOff = false;
         try {
-            Message m = Message.fromDatagramPacket(packet, packetLength);
+            Message m = Message.fromDatagramPacket(packet);
             // if isOwner we discard the message
             if (!m.isOwner(this.peer.getPeerId())) {
-                // get the correspondent worker to do the job
-                ExecutorService worker = m.getWorker(this.peer);
-                worker.submit(m.createTask(peer));
+                Task task = m.createTask(peer);
+                Runnable job = () -> {
+                    try {
+                        task.run();
+                    } finally {
+                        bufferPool.release(packet);
+                    }
+                };
+
+                ChunkKey key = m.getStripeKey();
+                if (key != null) {
+                    this.peer.getChunkExecutor().execute(key, job);
+                } else {
+                    // get the correspondent worker to do the job
+                    ExecutorService worker = m.getWorker(this.peer);
+                    worker.submit(job);
+                }
+                handedOff = true;
             }
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (!handedOff) bufferPool.release(packet);
         }
     }
 }
@@ -0,0 +1,150 @@
+package peer;
+
+import files.SavedChunk;
+import messages.Message;
+import messages.RemovedBatchMessage;
+import messages.RemovedMessage;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Engine picking and evicting the chunks stored on this peer when it needs space, on a RECLAIM or to store a new
+ * chunk
+ * <p>
+ * The chunks are put on a priority queue, the ones stored more times than desired first and then by the
+ * {@link EvictionPolicy}'s score, and evicted one at a time only until the occupation is under the limit. The whole
+ * eviction is committed once, and the REMOVED messages are sent afterwards, paced so the other peers are not flooded
+ * with the re-backups they trigger. On the enhanced version the chunks of the same file are sent on REMOVEDBATCH
+ * messages.
+ * </p>
+ *
+ * @see PeerInternalState#forceFreeSpace()
+ * @see PeerInternalState#freeSpace(long)
+ */
+public class EvictionEngine {
+    private final PeerInternalState state;
+    private final EvictionPolicy policy;
+
+    /**
+     * @param state  State whose saved chunks are evicted
+     * @param policy Policy ordering the chunks
+     */
+    public EvictionEngine(PeerInternalState state, EvictionPolicy policy) {
+        this.state = state;
+        this.policy = policy;
+    }
+
+    /**
+     * Method to evict chunks until the occupation is lesser or equal than a limit or there are no more chunks left to
+     * evict
+     *
+     * @param limit  Occupation to get to, in bytes
+     * @param unsafe <code>true</code> if the chunks not stored more times than desired can be evicted too
+     * @param notify <code>true</code> to send a REMOVED for the chunks evicted
+     * @return Number of chunks evicted
+     */
+    public synchronized int evict(long limit, boolean unsafe, boolean notify) {
+        if (this.state.getOccupation() <= limit) return 0;
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (SavedChunk chunk : this.state.getSavedChunksMap().values()) {
+            if (!chunk.isStored()) continue;
+            boolean safe = chunk.getPeers().size() > chunk.getReplicationDegree();
+            if (safe || unsafe) candidates.add(new Candidate(chunk, safe, this.policy.score(chunk)));
+        }
+        // built in linear time, only the chunks actually evicted are ever sorted
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(candidates);
+
+        List<SavedChunk> evicted = new ArrayList<>();
+        while (this.state.getOccupation() > limit && !queue.isEmpty()) {
+            SavedChunk chunk = queue.poll().chunk;
+            this.state.deleteChunk(chunk);
+            this.state.removeSavedChunk(chunk);
+            evicted.add(chunk);
+        }
+        if (evicted.isEmpty()) return 0;
+        this.state.commit();
+
+        if (notify) this.send(this.removedMessages(evicted).iterator());
+        return evicted.size();
+    }
+
+    /**
+     * Helper to build the REMOVED messages for the chunks evicted, one per chunk on the vanilla version and one per
+     * run of chunks of the same file on the enhanced version
+     */
+    private List<Message> removedMessages(List<SavedChunk> evicted) {
+        Peer peer = this.state.peer;
+        List<Message> messages = new ArrayList<>();
+        if (!peer.isEnhanced()) {
+            for (SavedChunk chunk : evicted)
+                messages.add(new RemovedMessage(peer.getProtocolVersion(), peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo()));
+            return messages;
+        }
+
+        Map<String, List<Integer>> byFile = new HashMap<>();
+        for (SavedChunk chunk : evicted)
+            byFile.computeIfAbsent(chunk.getFileId(), fileId -> new ArrayList<>()).add(chunk.getChunkNo());
+
+        for (Map.Entry<String, List<Integer>> entry : byFile.entrySet()) {
+            List<Integer> chunkNos = entry.getValue();
+            Collections.sort(chunkNos);
+            int i = 0;
+            while (i < chunkNos.size()) {
+                // a batch covers at most REMOVED_BATCH_SPAN chunk numbers from its first chunk
+                int first = chunkNos.get(i);
+                BitSet chunks = new BitSet();
+                while (i < chunkNos.size() && chunkNos.get(i) - first < Constants.REMOVED_BATCH_SPAN)
+                    chunks.set(chunkNos.get(i++) - first);
+
+                if (chunks.cardinality() == 1)
+                    messages.add(new RemovedMessage(peer.getProtocolVersion(), peer.getPeerId(), entry.getKey(), first));
+                else
+                    messages.add(new RemovedBatchMessage(peer.getProtocolVersion(), peer.getPeerId(), entry.getKey(), first, chunks));
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Helper to send the messages {@link Constants#REMOVED_BURST} at a time, every
+     * {@link Constants#REMOVED_INTERVAL} ms
+     */
+    private void send(Iterator<Message> messages) {
+        Peer peer = this.state.peer;
+        for (int i = 0; i < Constants.REMOVED_BURST && messages.hasNext(); i++)
+            peer.getMulticastControl().sendMessage(messages.next());
+
+        if (messages.hasNext())
+            peer.getRequestsExecutor().schedule(() -> this.send(messages), Constants.REMOVED_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Chunk waiting to be evicted, its score is taken once so it can't change while the chunk is on the queue
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        private final SavedChunk chunk;
+        private final boolean safe;
+        private final double score;
+
+        Candidate(SavedChunk chunk, boolean safe, double score) {
+            this.chunk = chunk;
+            this.safe = safe;
+            this.score = score;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            if (this.safe != other.safe) return this.safe ? -1 : 1;
+            return Double.compare(other.score, this.score);
+        }
+    }
+}
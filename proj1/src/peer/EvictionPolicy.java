@@ -0,0 +1,51 @@
+package peer;
+
+import files.SavedChunk;
+
+/**
+ * Scoring policy used by the {@link EvictionEngine} to pick the chunks to evict, the chunks with the highest score
+ * go first
+ * <p>
+ * The engine always evicts the chunks stored more times than desired before the others, the policy only orders the
+ * chunks within each of those groups. The policy is picked with
+ * <code>-Dpeer.evictionPolicy=surplus|size|lru</code>:
+ * </p>
+ * <ul>
+ *     <li>{@link #SURPLUS} (default): the chunks with the most copies beyond the desired, the largest first</li>
+ *     <li>{@link #SIZE}: the largest chunks, so the fewest chunks are evicted</li>
+ *     <li>{@link #LRU}: the chunks read the longest time ago, never read ones first</li>
+ * </ul>
+ */
+public interface EvictionPolicy {
+    EvictionPolicy SURPLUS = chunk -> chunk.getPeers().size() - chunk.getReplicationDegree()
+            // the size only breaks ties between chunks with the same surplus, so it's kept under 1
+            + chunk.getSize() / (Constants.CHUNK_SIZE + 1.0);
+    EvictionPolicy SIZE = SavedChunk::getSize;
+    EvictionPolicy LRU = chunk -> -chunk.getLastAccess();
+
+    /**
+     * Method to load the configured policy
+     *
+     * @return The policy
+     */
+    static EvictionPolicy load() {
+        String name = System.getProperty(Constants.EVICTION_POLICY_PROPERTY, "surplus");
+        switch (name) {
+            case "size":
+                return SIZE;
+            case "lru":
+                return LRU;
+            case "surplus":
+                return SURPLUS;
+            default:
+                System.out.printf("[PIS] Unknown eviction policy %s, using surplus\n", name);
+                return SURPLUS;
+        }
+    }
+
+    /**
+     * @param chunk Chunk stored on this peer
+     * @return Score of the chunk, the higher the sooner it is evicted
+     */
+    double score(SavedChunk chunk);
+}
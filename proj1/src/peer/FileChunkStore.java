@@ -0,0 +1,186 @@
+package peer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Chunk store keeping each body on its own file, <code>peerN/content/&lt;hh&gt;/&lt;hash&gt;</code>, spread over
+ * folders by the first byte of the hash so no folder ends up with every body
+ *
+ * @see ChunkStore
+ */
+public class FileChunkStore implements ChunkStore {
+    private final Path directory;
+    // bodies written since the last force and the folders holding their entries, guarded by this
+    private List<Path> unsynced = new ArrayList<>();
+    private Set<Path> unsyncedFolders = new LinkedHashSet<>();
+
+    /**
+     * @param directory Folder holding the bodies
+     */
+    public FileChunkStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param peerDirectory Peer's directory
+     * @return The folder of this engine inside the peer's directory
+     */
+    public static Path directoryOf(String peerDirectory) {
+        return Paths.get(peerDirectory, "content");
+    }
+
+    private Path pathOf(String address) {
+        return this.directory.resolve(address.substring(0, 2)).resolve(address);
+    }
+
+    @Override
+    public void write(String address, byte[] body) throws IOException {
+        Path path = this.pathOf(address);
+        Path folder = path.getParent();
+        // the folders about to be created, their entries live on their own parent folders
+        List<Path> created = new ArrayList<>();
+        for (Path missing = folder; missing != null && !Files.isDirectory(missing); missing = missing.getParent())
+            created.add(missing);
+
+        Files.createDirectories(folder);
+        Files.write(path, body);
+        synchronized (this) {
+            this.unsynced.add(path);
+            this.unsyncedFolders.add(folder);
+            for (Path missing : created) {
+                if (missing.getParent() != null) this.unsyncedFolders.add(missing.getParent());
+            }
+        }
+    }
+
+    /**
+     * Method to make the bodies written since the last force durable, each body is synced and then so are the
+     * folders holding the new entries (the body's folder and, when it was just created, the folder above it), as
+     * a synced file whose entry is not on disk is still lost on a crash
+     *
+     * @throws IOException On error syncing a body or a folder
+     */
+    @Override
+    public void force() throws IOException {
+        List<Path> paths;
+        Set<Path> folders;
+        synchronized (this) {
+            paths = this.unsynced;
+            folders = this.unsyncedFolders;
+            this.unsynced = new ArrayList<>();
+            this.unsyncedFolders = new LinkedHashSet<>();
+        }
+        for (Path path : paths) {
+            forcePath(path, StandardOpenOption.WRITE, false);
+        }
+        for (Path folder : folders) {
+            // a folder can only be opened for reading, which is enough to sync it
+            forcePath(folder, StandardOpenOption.READ, true);
+        }
+    }
+
+    /**
+     * Helper to sync a file or folder, if it was deleted meanwhile there's nothing left to sync
+     */
+    private static void forcePath(Path path, StandardOpenOption mode, boolean metaData) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(metaData);
+        } catch (NoSuchFileException e) {
+            // deleted meanwhile
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String address) throws IOException {
+        return readFile(this.pathOf(address));
+    }
+
+    /**
+     * Method to read a whole file into a read-only direct buffer
+     *
+     * @param file File to be read
+     * @return The file's content
+     * @throws IOException On error reading the file
+     */
+    public static ByteBuffer readFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer body = ByteBuffer.allocateDirect((int) channel.size());
+            while (body.hasRemaining() && channel.read(body) >= 0) ;
+            body.flip();
+            return body.asReadOnlyBuffer();
+        }
+    }
+
+    @Override
+    public Region open(String address) throws IOException {
+        FileChannel channel = FileChannel.open(this.pathOf(address), StandardOpenOption.READ);
+        return new Region(channel, 0, channel.size());
+    }
+
+    @Override
+    public long delete(String address) {
+        File file = this.pathOf(address).toFile();
+        long size = file.length();
+        if (!file.delete()) return 0;
+
+        // the folder is dropped along with its last body
+        file.getParentFile().delete();
+        return size;
+    }
+
+    @Override
+    public boolean contains(String address) {
+        return Files.exists(this.pathOf(address));
+    }
+
+    @Override
+    public List<String> addresses() {
+        if (!Files.isDirectory(this.directory)) return List.of();
+        try (Stream<Path> paths = Files.walk(this.directory, 2)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> path.getFileName().toString())
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return List.of();
+        }
+    }
+
+    /**
+     * @return 0, every byte on this engine's folder is a body
+     */
+    @Override
+    public long getOverhead() {
+        return 0;
+    }
+
+    //! Not documented
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    //! Not documented
+    @Override
+    public void maintain() {
+    }
+
+    //! Not documented
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,167 @@
+package peer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group commit of the chunks stored on this peer, so a STORED message is only sent once the chunk is durable
+ * <p>
+ * Syncing the disk after every chunk would cap the backups at a few hundred chunks per second, instead the chunks
+ * stored by concurrent jobs are grouped and made durable with a single sync of the chunk store and the journal. A
+ * group is synced once it has {@link Constants#GROUP_COMMIT_SIZE} chunks or its first chunk has waited
+ * {@link Constants#GROUP_COMMIT_DELAY} ms, whatever comes first, and the chunks stored while a group is being synced
+ * make up the next one. Both can be changed with <code>-Dpeer.groupCommitSize=N</code> and
+ * <code>-Dpeer.groupCommitDelay=ms</code>, and <code>-Dpeer.durability=none</code> turns syncing off (the STOREDs
+ * are sent right away, as before).
+ * </p>
+ *
+ * @see PeerInternalState#force()
+ * @see jobs.SendStoredChunk
+ */
+public class GroupCommitter implements Runnable {
+    private final PeerInternalState state;
+    private final boolean enabled;
+    private final int groupSize;
+    private final long delay;
+
+    // actions waiting for their chunks to be durable, guarded by this
+    private List<Runnable> pending = new ArrayList<>();
+    private long firstPending;
+
+    private final LongAdder groups = new LongAdder();
+    private final LongAdder committed = new LongAdder();
+    private final LongAdder syncNanos = new LongAdder();
+    private volatile long maxSyncNanos = 0;
+
+    /**
+     * @param state State whose chunk store and journal are synced
+     */
+    public GroupCommitter(PeerInternalState state) {
+        this.state = state;
+        this.enabled = !"none".equals(System.getProperty(Constants.DURABILITY_PROPERTY));
+        this.groupSize = Math.max(1, Integer.getInteger(Constants.GROUP_COMMIT_SIZE_PROPERTY, Constants.GROUP_COMMIT_SIZE));
+        this.delay = Math.max(0, Integer.getInteger(Constants.GROUP_COMMIT_DELAY_PROPERTY, Constants.GROUP_COMMIT_DELAY));
+    }
+
+    /**
+     * Method to start the thread syncing the groups, if syncing is on
+     */
+    public void start() {
+        if (!this.enabled) return;
+        Thread thread = new Thread(this, "group-commit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Method to run an action once every chunk stored so far is durable, e.g. sending the chunk's STORED
+     *
+     * @param action Action to be run, on the group commit thread
+     */
+    public void whenDurable(Runnable action) {
+        if (!this.enabled) {
+            action.run();
+            return;
+        }
+
+        synchronized (this) {
+            if (this.pending.isEmpty()) this.firstPending = System.currentTimeMillis();
+            this.pending.add(action);
+            if (this.pending.size() == 1 || this.pending.size() >= this.groupSize) this.notifyAll();
+        }
+    }
+
+    /**
+     * Method to sync the groups as they fill up, one at a time
+     */
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Runnable> group;
+            try {
+                group = this.nextGroup();
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                this.state.force();
+            } catch (IOException e) {
+                // the chunks are on the disk, just not known to be durable, the STOREDs still go out
+                System.out.println("[PIS] Could not sync the stored chunks");
+                e.printStackTrace();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            this.groups.increment();
+            this.committed.add(group.size());
+            this.syncNanos.add(elapsed);
+            if (elapsed > this.maxSyncNanos) this.maxSyncNanos = elapsed;
+
+            for (Runnable action : group) {
+                try {
+                    action.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper to wait for the next group to be full or due
+     */
+    private synchronized List<Runnable> nextGroup() throws InterruptedException {
+        while (this.pending.isEmpty()) this.wait();
+
+        long due = this.firstPending + this.delay;
+        long now;
+        while (this.pending.size() < this.groupSize && (now = System.currentTimeMillis()) < due) {
+            this.wait(due - now);
+        }
+
+        List<Runnable> group = this.pending;
+        this.pending = new ArrayList<>();
+        return group;
+    }
+
+    /**
+     * @return Number of groups synced
+     */
+    public long getGroups() {
+        return this.groups.sum();
+    }
+
+    /**
+     * @return Average number of chunks per group
+     */
+    public double getAverageGroupSize() {
+        long groups = this.groups.sum();
+        return groups == 0 ? 0 : (double) this.committed.sum() / groups;
+    }
+
+    /**
+     * @return Average time a sync takes, in ms
+     */
+    public double getAverageSyncMillis() {
+        long groups = this.groups.sum();
+        return groups == 0 ? 0 : this.syncNanos.sum() / 1e6 / groups;
+    }
+
+    /**
+     * @return Longest time a sync took, in ms
+     */
+    public double getMaxSyncMillis() {
+        return this.maxSyncNanos / 1e6;
+    }
+
+    /**
+     * @return <code>true</code> if the chunks are synced before their STOREDs are sent
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+}
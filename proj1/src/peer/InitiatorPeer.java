@@ -8,13 +8,27 @@ import java.rmi.RemoteException;
  */
 public interface InitiatorPeer extends Remote {
     /**
-     * Start a backup operation for a file using its pathname
+     * Start a backup operation for a file using its pathname, the call returns once every chunk is backed up
+     * (or the backup gives up on them)
      *
      * @param pathname          File's pathname
      * @param replicationDegree Desired replication degree
+     * @return The outcome of the backup
      * @throws RemoteException On error connecting with RMI
      */
-    void backup(String pathname, int replicationDegree) throws RemoteException;
+    String backup(String pathname, int replicationDegree) throws RemoteException;
+
+    /**
+     * Start a backup operation for a file using its pathname, optionally compressing the chunks (enhanced peers
+     * only), the call returns once every chunk is backed up (or the backup gives up on them)
+     *
+     * @param pathname          File's pathname
+     * @param replicationDegree Desired replication degree
+     * @param compress          <code>true</code> to compress the chunks before sending them
+     * @return The outcome of the backup
+     * @throws RemoteException On error connecting with RMI
+     */
+    String backup(String pathname, int replicationDegree, boolean compress) throws RemoteException;
 
     /**
      * Start a Restore Operation for a file using its pathname
@@ -2,24 +2,30 @@ package peer;
 
 import files.*;
 import jobs.BackupChunk;
+import jobs.BackupWindow;
 import jobs.DeleteFile;
 import messages.GeneralKenobi;
-import messages.Message;
 import messages.MulticastService;
-import messages.RemovedMessage;
+import messages.StoredCoalescer;
+import messages.TransferClient;
+import messages.TransferServer;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,11 +49,19 @@ public class Peer implements InitiatorPeer {
     private final ScheduledExecutorService requestsExecutor;
     private final ExecutorService acknowledgmentsExecutor;
     private final ExecutorService IOExecutor;
+    private final StripedExecutor chunkExecutor;
+    private final StoredCoalescer storedCoalescer;
+    private final GroupCommitter groupCommitter;
+    private final TransferClient transferClient = new TransferClient();
+    private TransferServer transferServer;
 
     private final InetAddress address;
 
     private final PeerInternalState internalState;
 
+    // fileId -> sending window of the backups in progress
+    private final ConcurrentHashMap<String, BackupWindow> backupWindows = new ConcurrentHashMap<>();
+
     /**
      * Main method, every peer starts here, the arguments are parsed, the database is either loaded or
      * created if it does not exist, and the 3 multicast channels are created and started
@@ -81,9 +95,9 @@ public class Peer implements InitiatorPeer {
     /**
      * Main constructor for a peer: it takes the arguments passed in the command line, parses them and instantiates
      * the fields accordingly, here we also initialize the executors and schedulers. As mentioned on the report
-     * we have 4 executors/schedulers for our concurrency model. For the Restore Enhancement we also define here the
-     * IP address of this peer, and finally we load the database if it exists on the file system, otherwise a new database
-     * is created from scratch
+     * we have 4 executors/schedulers for our concurrency model (running on virtual threads if enabled, see
+     * PeerExecutors). For the Restore Enhancement we also define here the IP address of this peer, and finally we
+     * load the database if it exists on the file system, otherwise a new database is created from scratch
      *
      * @param args Arguments passed in the command line at the start
      * @throws IOException On a problem parsing the arguments or getting the localhost IP
@@ -91,14 +105,27 @@ public class Peer implements InitiatorPeer {
     public Peer(String[] args) throws IOException {
         parseArgs(args);
 
-        this.triageExecutor = Executors.newFixedThreadPool(Constants.TRIAGE_WORKERS);
-        this.requestsExecutor = Executors.newScheduledThreadPool(Constants.REQUESTS_WORKERS);
-        this.acknowledgmentsExecutor = Executors.newFixedThreadPool(Constants.ACKS_WORKERS);
-        this.IOExecutor = Executors.newFixedThreadPool(Constants.IO_WORKERS);
+        this.triageExecutor = PeerExecutors.newExecutor(Constants.TRIAGE_WORKERS);
+        this.requestsExecutor = PeerExecutors.newScheduler(Constants.REQUESTS_WORKERS);
+        this.acknowledgmentsExecutor = PeerExecutors.newExecutor(Constants.ACKS_WORKERS);
+        this.IOExecutor = PeerExecutors.newExecutor(Constants.IO_WORKERS);
+        int stripes = StripedExecutor.configuredStripes();
+        this.chunkExecutor = new StripedExecutor(stripes, PeerExecutors.newExecutor(stripes), this.requestsExecutor);
+        this.storedCoalescer = new StoredCoalescer(this);
 
         this.address = InetAddress.getLocalHost();
 
         this.internalState = PeerInternalState.loadInternalState(this);
+        this.groupCommitter = new GroupCommitter(this.internalState);
+
+        if (this.isEnhanced()) {
+            try {
+                this.transferServer = new TransferServer(Constants.TRANSFER_BASE_PORT + this.peerId);
+            } catch (IOException e) {
+                // chunks are then sent on the multicast channel
+                System.out.printf("[PEER] Could not start the transfer server: %s\n", e.getMessage());
+            }
+        }
     }
 
     /**
@@ -117,12 +144,40 @@ public class Peer implements InitiatorPeer {
         System.out.printf("[PEER] Saved Chunks: %d\n", this.internalState.getSavedChunksMap().size());
         System.out.printf("[PEER] Sent Chunks: %d\n", this.internalState.getSentChunksMap().size());
         System.out.printf("[PEER] Backed Up Files: %d\n", this.internalState.getBackedUpFilesMap().size());
-        System.out.printf("[PEER] Occupation: %.2fKB\n", this.internalState.calculateOccupation() / 1000.0);
+        System.out.printf("[PEER] Occupation: %.2fKB\n", this.internalState.getOccupation() / 1000.0);
         System.out.printf("[PEER] Capacity: %.2fKB\n", this.internalState.getCapacity() / 1000.0);
 
         String version = this.protocolVersion + ((this.isEnhanced()) ? " - ENHANCED" : "");
 
         System.out.println("[PEER] Version: " + version);
+        System.out.println("[PEER] Threads: " + (PeerExecutors.usingVirtualThreads() ? "virtual" : "platform"));
+        System.out.println("[PEER] Chunk Lanes: " + this.chunkExecutor.getStripes());
+        System.out.println("[PEER] Durability: " + (this.groupCommitter.isEnabled() ? "group commit" : "none"));
+        this.groupCommitter.start();
+
+        // the occupation is tracked as chunks are stored and deleted, this only double checks it against the disk
+        this.requestsExecutor.scheduleWithFixedDelay(this.internalState::reconcileOccupation,
+                Constants.OCCUPATION_RECONCILE_PERIOD, Constants.OCCUPATION_RECONCILE_PERIOD, TimeUnit.SECONDS);
+
+        // deleted bodies are only reclaimed from the chunk store from time to time
+        this.requestsExecutor.scheduleWithFixedDelay(this.internalState::maintainStore,
+                Constants.SEGMENT_COMPACTION_PERIOD, Constants.SEGMENT_COMPACTION_PERIOD, TimeUnit.SECONDS);
+
+        // leftover empty folders are not worth competing with the chunk traffic, they get a thread of their own
+        ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "folder-sweeper");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this.internalState::sweepFolders,
+                Constants.FOLDER_SWEEP_PERIOD, Constants.FOLDER_SWEEP_PERIOD, TimeUnit.SECONDS);
+
+        if (this.transferServer != null) {
+            new Thread(this.transferServer).start();
+            this.requestsExecutor.scheduleWithFixedDelay(this.transferServer::expireOffers,
+                    Constants.TRANSFER_OFFER_TIMEOUT, Constants.TRANSFER_OFFER_TIMEOUT, TimeUnit.SECONDS);
+        }
 
         if (this.isEnhanced()) {
             System.out.println("[PEER] Cosplaying as General Kenobi and sending an 'Hello There' to peers listening...");
@@ -197,28 +252,79 @@ public class Peer implements InitiatorPeer {
     }
 
     /**
-     * This method will start the backup procedure for a file with a given replication degree, to put this simple,
-     * this method reads the file in chunks of 64KB (64000B) and for each it will start a BackupChunk job
+     * This method will perform the backup procedure for a file with a given replication degree and wait for it
+     * to finish, each chunk is done as soon as it's stored enough times so this takes as long as the network needs
      *
      * @see InitiatorPeer
-     * @see BackupChunk
+     * @see #startBackup(String, int, boolean)
+     */
+    @Override
+    public String backup(String pathname, int replicationDegree) throws RemoteException {
+        return this.backup(pathname, replicationDegree, false);
+    }
+
+    /**
+     * This method will perform the backup procedure for a file with a given replication degree, compressing its
+     * chunks if asked to, and wait for it to finish
+     *
+     * @see InitiatorPeer
+     * @see #startBackup(String, int, boolean)
      */
     @Override
-    public void backup(String pathname, int replicationDegree) throws RemoteException {
+    public String backup(String pathname, int replicationDegree, boolean compress) throws RemoteException {
+        CompletableFuture<Boolean> completion = this.startBackup(pathname, replicationDegree, compress);
+        if (completion == null)
+            return String.format("Backup of %s was not started", pathname);
+
+        try {
+            return completion.get()
+                    ? String.format("Backup of %s completed", pathname)
+                    : String.format("Backup of %s incomplete, some chunks could not reach the desired replication degree", pathname);
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return String.format("Backup of %s was interrupted", pathname);
+        }
+    }
+
+    /**
+     * This method will start the backup procedure for a file with a given replication degree, to put this simple,
+     * this method reads the file in chunks of 64KB (64000B) and queues them on the file's sending window, which
+     * will start a BackupChunk job for each chunk as soon as there's room for it
+     * <p>
+     * On the enhanced version the chunks can be compressed before being sent, the peers store them compressed
+     * (so they take less space) and the initiator decompresses them on restore. Chunks that don't shrink are sent
+     * as they are.
+     * </p>
+     *
+     * @param pathname          File's pathname
+     * @param replicationDegree Desired replication degree
+     * @param compress          <code>true</code> to compress the chunks (ignored on the vanilla version)
+     * @return A future completed once the backup is over, with <code>true</code> if every chunk reached the desired
+     * replication degree, or <code>null</code> if the backup could not be started
+     * @see BackupChunk
+     * @see BackupWindow
+     */
+    public CompletableFuture<Boolean> startBackup(String pathname, int replicationDegree, boolean compress) {
         System.out.println("[CLIENT] BACKUP PROTOCOL");
+        if (compress && !this.isEnhanced()) {
+            System.out.println("[BACKUP] Compression is only available on the enhanced version, sending the chunks as they are");
+            compress = false;
+        }
 
         int numberOfChunks = IOUtils.getNumberOfChunks(pathname);
         String original = pathname;
 
+        BackedUpFile file = null;
         try {
-            BackedUpFile file = new BackedUpFile(pathname);
+            file = new BackedUpFile(pathname);
             System.out.printf("[CLIENT] Pathname: %s | Replication Degree: %d\nFile ID: %s\n", pathname, replicationDegree, file.getFileID());
 
             if (this.internalState.getBackedUpFilesMap().containsKey(pathname)) {
                 System.out.println("[BACKUP] There's already a backup for this pathname: " + pathname);
                 if (this.internalState.getBackedUpFilesMap().get(pathname).getFileId().equals(file.getFileID())) {
                     System.out.println("[BACKUP] Delete this file before proceeding.");
-                    return;
+                    closeBackedUpFile(file);
+                    return null;
                 }
                 else {
                     File file1 = new File(pathname);
@@ -230,31 +336,57 @@ public class Peer implements InitiatorPeer {
                 }
             }
 
-            this.getInternalState().getBackedUpFilesMap().put(pathname, new ServerFile(original, file.getFileID(), replicationDegree, IOUtils.getSize(original)));
+            this.getInternalState().addBackedUpFile(pathname, new ServerFile(original, file.getFileID(), replicationDegree, IOUtils.getSize(original)));
             this.getInternalState().commit();
 
-            byte[] buffer;
+            BackupWindow window = new BackupWindow(this, file.getFileID());
+            this.backupWindows.put(file.getFileID(), window);
+
+            ByteBuffer buffer;
             int i = 0;
             int size = 0;
             while ((buffer = file.getNextChunk()) != null) {
-                size = buffer.length;
+                size = buffer.remaining();
                 SentChunk chunk = new SentChunk(file.getFileID(), i, replicationDegree);
-                chunk.setBody(Arrays.copyOf(buffer, buffer.length));
-                this.internalState.getSentChunksMap().put(chunk.getChunkId(), chunk);
-
-                System.out.printf("[%s] SENDING CHUNK: %d of %d\n", pathname, i + 1, numberOfChunks);
-                this.IOExecutor.submit(new BackupChunk(chunk, this, 1));
+                byte[] compressed = compress ? IOUtils.compress(buffer) : null;
+                // the compressed body is sent like the mapped one, and released along with it
+                chunk.setSource(compressed != null ? ByteBuffer.wrap(compressed).asReadOnlyBuffer() : buffer);
+                chunk.setCompressed(compressed != null);
+                this.internalState.addSentChunk(chunk);
+
+                System.out.printf("[%s] QUEUING CHUNK: %d of %d\n", pathname, i + 1, numberOfChunks);
+                window.offer(chunk);
                 i++;
             }
             if (size == 64000) {
                 System.out.println("FILE WITH MULTIPLE OF 64KB, SENDING AN EMPTY BODY PUTCHAR MESSAGE");
                 SentChunk chunk = new SentChunk(file.getFileID(), i, replicationDegree);
                 chunk.setBody(new byte[0]);
-                this.internalState.getSentChunksMap().put(chunk.getChunkId(), chunk);
+                this.internalState.addSentChunk(chunk);
 
-                System.out.printf("[%s] SENDING CHUNK: %d of %d\n", pathname, i + 1, numberOfChunks);
-                this.IOExecutor.submit(new BackupChunk(chunk, this, 1));
+                System.out.printf("[%s] QUEUING CHUNK: %d of %d\n", pathname, i + 1, numberOfChunks);
+                window.offer(chunk);
             }
+            window.fill();
+
+            // the chunks are slices of the file's mapping, it's only closed once they're all sent
+            BackedUpFile backedUp = file;
+            window.getCompletion().whenComplete((done, e) -> closeBackedUpFile(backedUp));
+            return window.getCompletion();
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeBackedUpFile(file);
+            return null;
+        }
+    }
+
+    /**
+     * Helper to close a file being backed up
+     */
+    private static void closeBackedUpFile(BackedUpFile file) {
+        if (file == null) return;
+        try {
+            file.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -324,14 +456,7 @@ public class Peer implements InitiatorPeer {
             this.internalState.setCapacity(0);
             System.out.println("[PEER] Removing all chunks");
             // delete every chunk and reset capacity
-            for (String chunkId : this.internalState.getSavedChunksMap().keySet()) {
-                SavedChunk chunk = this.internalState.getSavedChunksMap().get(chunkId);
-                this.internalState.deleteChunk(chunk);
-                this.internalState.getSavedChunksMap().remove(chunkId);
-
-                Message message = new RemovedMessage(this.protocolVersion, this.peerId, chunk.getFileId(), chunk.getChunkNo());
-                this.multicastControl.sendMessage(message);
-            }
+            this.internalState.forceFreeSpace();
             this.internalState.setCapacity(Constants.DEFAULT_CAPACITY);
             this.internalState.commit();
             return;
@@ -403,4 +528,57 @@ public class Peer implements InitiatorPeer {
     public ExecutorService getIOExecutor() {
         return IOExecutor;
     }
+
+    /**
+     * @return The executor running the per chunk work, one lane per chunk
+     */
+    public StripedExecutor getChunkExecutor() {
+        return chunkExecutor;
+    }
+
+    /**
+     * @return The coalescer every STORED message is sent through
+     */
+    public StoredCoalescer getStoredCoalescer() {
+        return storedCoalescer;
+    }
+
+    /**
+     * @return The group commit of the chunks stored by this peer
+     */
+    public GroupCommitter getGroupCommitter() {
+        return groupCommitter;
+    }
+
+    /**
+     * @return The TCP server this peer sends restored chunks from, or <code>null</code> if it's not running
+     */
+    public TransferServer getTransferServer() {
+        return transferServer;
+    }
+
+    /**
+     * @return The client keeping the connections to the other peers' transfer servers
+     */
+    public TransferClient getTransferClient() {
+        return transferClient;
+    }
+
+    /**
+     * @param fileId File ID of a file being backed up
+     * @return The sending window for the file's backup, or <code>null</code> if it's not being backed up
+     */
+    public BackupWindow getBackupWindow(String fileId) {
+        return backupWindows.get(fileId);
+    }
+
+    /**
+     * Method to stop tracking a backup's sending window, once every chunk has been sent
+     *
+     * @param fileId File ID of the file backed up
+     * @param window Window to be removed (a newer backup of the same file keeps its own window)
+     */
+    public void removeBackupWindow(String fileId, BackupWindow window) {
+        backupWindows.remove(fileId, window);
+    }
 }
@@ -0,0 +1,215 @@
+package peer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Factory for the Peer's executors and schedulers
+ * <p>
+ * By default the executors are fixed pools of platform threads sized by {@link Constants}. When the peer is started
+ * with <code>-Dpeer.virtualThreads=true</code> (and the JVM supports virtual threads, Java 21+) every task runs on
+ * its own virtual thread instead, so blocking per-chunk work (sleeps, TCP transfers) no longer competes for a
+ * fixed number of threads. Delayed work is then kept by a single platform scheduler thread, which only hands the
+ * tasks over to virtual threads once they're due.
+ * </p>
+ * <p>
+ * Virtual threads are created through reflection so the peer still compiles and runs on Java 11, falling back to
+ * the platform pools.
+ * </p>
+ */
+public final class PeerExecutors {
+    private static final ExecutorService virtualExecutor = createVirtualExecutor();
+
+    private PeerExecutors() {
+    }
+
+    /**
+     * @return An executor starting a virtual thread per task, or <code>null</code> if virtual threads are disabled
+     * or not supported by this JVM
+     */
+    private static ExecutorService createVirtualExecutor() {
+        if (!Boolean.getBoolean(Constants.VIRTUAL_THREADS_PROPERTY)) return null;
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("[PEER] Virtual threads are not supported by this JVM, using platform threads");
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the executors are running tasks on virtual threads
+     */
+    public static boolean usingVirtualThreads() {
+        return virtualExecutor != null;
+    }
+
+    /**
+     * Method to create an executor for immediate work
+     *
+     * @param threads Number of platform threads to use if virtual threads are disabled
+     * @return The executor
+     */
+    public static ExecutorService newExecutor(int threads) {
+        if (virtualExecutor != null) return virtualExecutor;
+        return Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Method to create a scheduler for immediate and delayed work
+     *
+     * @param threads Number of platform threads to use if virtual threads are disabled
+     * @return The scheduler
+     */
+    public static ScheduledExecutorService newScheduler(int threads) {
+        if (virtualExecutor != null) return new HandOffScheduler(virtualExecutor);
+        return Executors.newScheduledThreadPool(threads);
+    }
+
+    /**
+     * Scheduler that keeps the delayed tasks on a single platform thread and runs every task on a virtual thread,
+     * the futures returned by <code>schedule</code> can cancel a task until it's handed over
+     */
+    private static class HandOffScheduler extends ScheduledThreadPoolExecutor {
+        private final ExecutorService executor;
+
+        HandOffScheduler(ExecutorService executor) {
+            super(1);
+            this.executor = executor;
+            this.setRemoveOnCancelPolicy(true);
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            this.executor.execute(command);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return this.executor.submit(task);
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return this.executor.submit(task, result);
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return this.executor.submit(task);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return super.schedule(() -> this.executor.execute(command), delay, unit);
+        }
+
+        /**
+         * The task is handed over to a virtual thread on each run, and the next run is only scheduled once it is
+         * over, so runs never overlap and the period is kept from the start of each run
+         */
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            return new PeriodicTask(command, unit.toNanos(period), true).start(unit.toNanos(initialDelay));
+        }
+
+        /**
+         * The task is handed over to a virtual thread on each run, and the delay to the next run only starts once
+         * it is over
+         */
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            return new PeriodicTask(command, unit.toNanos(delay), false).start(unit.toNanos(initialDelay));
+        }
+
+        /**
+         * Periodic task run on the virtual threads, each run is scheduled by the end of the previous one. Like on
+         * a regular scheduler, a run throwing an exception cancels the next ones, and the exception is reported by
+         * the future
+         */
+        private class PeriodicTask implements ScheduledFuture<Object>, Runnable {
+            private final Runnable command;
+            private final long period;
+            private final boolean fixedRate;
+            private final CompletableFuture<Object> done = new CompletableFuture<>();
+            private volatile ScheduledFuture<?> next;
+            private long nextStart;
+
+            PeriodicTask(Runnable command, long period, boolean fixedRate) {
+                this.command = command;
+                this.period = period;
+                this.fixedRate = fixedRate;
+            }
+
+            synchronized PeriodicTask start(long delay) {
+                this.nextStart = System.nanoTime() + delay;
+                this.next = HandOffScheduler.super.schedule(() -> executor.execute(this), delay, TimeUnit.NANOSECONDS);
+                return this;
+            }
+
+            @Override
+            public void run() {
+                if (this.done.isDone()) return;
+                try {
+                    this.command.run();
+                } catch (Throwable e) {
+                    this.done.completeExceptionally(e);
+                    return;
+                }
+                if (this.done.isDone()) return;
+
+                long delay = this.fixedRate ? Math.max(0, this.nextStart + this.period - System.nanoTime()) : this.period;
+                this.start(delay);
+                // cancelled while being rescheduled
+                if (this.done.isDone()) this.next.cancel(false);
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = this.done.cancel(mayInterruptIfRunning);
+                this.next.cancel(false);
+                return cancelled;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return this.done.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return this.done.isDone();
+            }
+
+            @Override
+            public Object get() throws InterruptedException, ExecutionException {
+                return this.done.get();
+            }
+
+            @Override
+            public Object get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+                return this.done.get(timeout, unit);
+            }
+
+            @Override
+            public long getDelay(TimeUnit unit) {
+                return this.next.getDelay(unit);
+            }
+
+            @Override
+            public int compareTo(Delayed other) {
+                return Long.compare(this.getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+            }
+        }
+    }
+}
@@ -1,40 +1,86 @@
 package peer;
 
 import files.Chunk;
+import files.ChunkKey;
+import files.FileKey;
+import files.IOUtils;
 import files.SavedChunk;
 import files.SentChunk;
 import files.ServerFile;
-import messages.Message;
-import messages.RemovedMessage;
+import jobs.BackupWindow;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 /**
  * The Peer's Database and State Manager, this class is serializable as we need to store the data on persistent
- * memory so that we can reload the Peer without data loss. Our chunks maps are mapped ChunkId to Chunk where
- * ChunkID stands for fileID_chunkNo
+ * memory so that we can reload the Peer without data loss. Our chunks maps are mapped ChunkKey to Chunk where
+ * the ChunkKey is a compact form of fileID_chunkNo, both maps are also indexed by File ID so the chunks of a single file can be
+ * found without going through every chunk
+ * <p>
+ * Changes to the state are recorded on a write-ahead journal, the serialized state is only a snapshot
+ * written from time to time
+ * <p>
+ * Chunk bodies are stored by content on the chunk store, addressed by their SHA-256: each body is written once and
+ * every saved chunk with the same body references it, the body is only deleted along with its last reference. The
+ * occupation counts each stored body once.
+ *
+ * @see ChunkStore
+ * @see StateJournal
  */
 public class PeerInternalState implements Serializable {
-    // chunkId -> sent chunk
-    private final ConcurrentHashMap<String, SentChunk> sentChunksMap;
-    // chunkId -> saved chunk
-    private final ConcurrentHashMap<String, SavedChunk> savedChunksMap;
+    private static final long serialVersionUID = 4L;
+
+    // chunk key -> sent chunk
+    private final ConcurrentHashMap<ChunkKey, SentChunk> sentChunksMap;
+    // chunk key -> saved chunk
+    private final ConcurrentHashMap<ChunkKey, SavedChunk> savedChunksMap;
     private final ConcurrentHashMap<String, ServerFile> backedUpFilesMap;
 
     private final Set<String> deletedFiles;
 
+    // fileId -> chunk keys, secondary indexes over the chunks maps (rebuilt on load)
+    private transient ConcurrentHashMap<FileKey, Set<ChunkKey>> sentChunksByFile;
+    private transient ConcurrentHashMap<FileKey, Set<ChunkKey>> savedChunksByFile;
+    // chunks being restored, completed when their CHUNK message arrives
+    private transient ConcurrentHashMap<ChunkKey, CompletableFuture<SentChunk>> pendingRestores;
+    // bodies of the saved chunks read to be sent
+    private transient ChunkCache chunkCache;
+    // content hash -> saved chunks referencing the stored body (rebuilt on load)
+    private transient ConcurrentHashMap<String, Integer> contentRefs;
+    // locks taken to change the references of a body and write or delete it, picked by the hash
+    private transient Object[] contentLocks;
+    // bodies of the saved chunks
+    private transient ChunkStore store;
+    // file ID -> saved chunks still on their own file, under the file's folder (rebuilt on load)
+    private transient ConcurrentHashMap<String, Integer> legacyChunks;
+    // picks the saved chunks to delete when space is needed
+    private transient EvictionEngine eviction;
+
     private static transient String PEER_DIRECTORY = "peer%d";
     private static transient String DB_FILENAME = "peer%d/data.ser";
+    private static transient String JOURNAL_FILENAME = "peer%d/journal.log";
     private static final transient String CHUNK_PATH = "%s/%s/%d";
     private long capacity = Constants.DEFAULT_CAPACITY;
-    private long occupation;
+    private transient AtomicLong occupation;
 
     transient Peer peer;
+    private transient StateJournal journal;
 
     private static transient boolean acceptingRequests = true;
 
@@ -52,6 +98,56 @@ public class PeerInternalState implements Serializable {
         this.backedUpFilesMap = new ConcurrentHashMap<>();
         this.deletedFiles = ConcurrentHashMap.newKeySet();
         this.peer = peer;
+        this.buildIndexes();
+    }
+
+    /**
+     * Method to build the File ID indexes from the chunks maps, the indexes are not serialized so they must be
+     * built every time the database is loaded
+     */
+    private void buildIndexes() {
+        this.sentChunksByFile = new ConcurrentHashMap<>();
+        this.savedChunksByFile = new ConcurrentHashMap<>();
+        this.sentChunksMap.values().forEach(chunk -> index(this.sentChunksByFile, chunk));
+        this.savedChunksMap.values().forEach(chunk -> index(this.savedChunksByFile, chunk));
+    }
+
+    /**
+     * Helper to add a chunk to a File ID index, the set is changed inside <code>compute</code> so it can't be
+     * dropped by a concurrent <code>unindex</code> in the meantime
+     */
+    private static void index(ConcurrentHashMap<FileKey, Set<ChunkKey>> index, Chunk chunk) {
+        index.compute(chunk.getKey().getFileKey(), (file, keys) -> {
+            if (keys == null) keys = ConcurrentHashMap.newKeySet();
+            keys.add(chunk.getKey());
+            return keys;
+        });
+    }
+
+    /**
+     * Helper to remove a chunk from a File ID index, files left without chunks are dropped from the index
+     */
+    private static void unindex(ConcurrentHashMap<FileKey, Set<ChunkKey>> index, Chunk chunk) {
+        index.computeIfPresent(chunk.getKey().getFileKey(), (file, keys) -> {
+            keys.remove(chunk.getKey());
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * Helper to get the chunks of a file using a File ID index, sorted by their sequential number
+     */
+    private static <T extends Chunk> List<T> chunksOf(ConcurrentHashMap<FileKey, Set<ChunkKey>> index, Map<ChunkKey, T> chunks, String fileId) {
+        List<T> ret = new ArrayList<>();
+        Set<ChunkKey> keys = index.get(FileKey.of(fileId));
+        if (keys == null) return ret;
+
+        for (ChunkKey key : keys) {
+            T chunk = chunks.get(key);
+            if (chunk != null) ret.add(chunk);
+        }
+        ret.sort(Comparator.comparingInt(Chunk::getChunkNo));
+        return ret;
     }
 
     /**
@@ -64,6 +160,7 @@ public class PeerInternalState implements Serializable {
     public static PeerInternalState loadInternalState(Peer peer) {
         PEER_DIRECTORY = String.format(PEER_DIRECTORY, peer.getPeerId());
         DB_FILENAME = String.format(DB_FILENAME, peer.getPeerId());
+        JOURNAL_FILENAME = String.format(JOURNAL_FILENAME, peer.getPeerId());
 
         PeerInternalState peerInternalState = null;
 
@@ -72,6 +169,7 @@ public class PeerInternalState implements Serializable {
             ObjectInputStream objectIn = new ObjectInputStream(inputStream);
             peerInternalState = (PeerInternalState) objectIn.readObject();
             peerInternalState.peer = peer;
+            peerInternalState.buildIndexes();
             inputStream.close();
             objectIn.close();
         } catch (IOException | ClassNotFoundException e) {
@@ -84,8 +182,18 @@ public class PeerInternalState implements Serializable {
             peerInternalState = new PeerInternalState(peer);
         }
 
+        // the snapshot may be behind, the changes since then are on the journal
+        peerInternalState.journal = new StateJournal(JOURNAL_FILENAME);
+        int replayed = peerInternalState.journal.replay(peerInternalState);
+        if (replayed > 0)
+            System.out.printf("[PIS] Replayed %d journal records\n", replayed);
+
         peerInternalState.build();
 
+        // starting with a fresh snapshot and an empty journal
+        if (replayed > 0)
+            peerInternalState.checkpoint();
+
         return peerInternalState;
     }
 
@@ -93,6 +201,22 @@ public class PeerInternalState implements Serializable {
      * Method to build a new database
      */
     private void build() {
+        this.occupation = new AtomicLong(0);
+        this.pendingRestores = new ConcurrentHashMap<>();
+        this.chunkCache = new ChunkCache(ChunkCache.configuredBudget());
+        this.eviction = new EvictionEngine(this, EvictionPolicy.load());
+        this.contentRefs = new ConcurrentHashMap<>();
+        this.contentLocks = new Object[Constants.CONTENT_LOCKS];
+        for (int i = 0; i < this.contentLocks.length; i++) this.contentLocks[i] = new Object();
+        for (SavedChunk chunk : this.savedChunksMap.values()) {
+            if (chunk.isStored() && chunk.getContentHash() != null)
+                this.contentRefs.merge(chunk.getContentHash(), 1, Integer::sum);
+        }
+        this.legacyChunks = new ConcurrentHashMap<>();
+        for (SavedChunk chunk : this.savedChunksMap.values()) {
+            if (chunk.isStored() && chunk.getContentHash() == null)
+                this.legacyChunks.merge(chunk.getFileId(), 1, Integer::sum);
+        }
         File directory = new File(PEER_DIRECTORY);
         // create dir if it does not exist
         if (!directory.exists())
@@ -102,100 +226,445 @@ public class PeerInternalState implements Serializable {
             }
         try {
             new File(DB_FILENAME).createNewFile();
+            this.journal.open();
+            this.store = ChunkStore.load(PEER_DIRECTORY);
+            if (!(this.store instanceof FileChunkStore))
+                this.importBodies(new FileChunkStore(FileChunkStore.directoryOf(PEER_DIRECTORY)));
         } catch (IOException e) {
             System.out.println("[PIS] Could not load/create database file");
             e.printStackTrace();
             return;
         }
-        this.updateOccupation();
+        this.occupation.set(this.calculateOccupation());
         System.out.println("[PIS] Database Loaded/Created Successfully");
     }
 
+    /**
+     * Method to move the bodies kept by another engine (e.g. stored before the engine was changed) to the chunk
+     * store, so the chunks referencing them can still be read
+     *
+     * @param from Engine holding the bodies
+     * @throws IOException On error moving a body
+     */
+    private void importBodies(ChunkStore from) throws IOException {
+        List<String> addresses = from.addresses();
+        for (String address : addresses) {
+            ByteBuffer body = from.read(address);
+            byte[] bytes = new byte[body.remaining()];
+            body.get(bytes);
+            this.store.write(address, bytes);
+            from.delete(address);
+        }
+        if (!addresses.isEmpty())
+            System.out.printf("[PIS] Moved %d chunk bodies to the chunk store\n", addresses.size());
+    }
+
+    /**
+     * Method to run the chunk store's background work (e.g. compacting segments), scheduled by the peer
+     */
+    public void maintainStore() {
+        this.store.maintain();
+    }
+
     /**
      * Method to write the database to persistent memory, like a commit on a real database
+     * <p>
+     * Only the journal records written since the last commit are flushed, once the journal has enough records
+     * the whole state is checkpointed into a new snapshot
+     * </p>
      */
     public void commit() {
+        synchronized (this) {
+            this.journal.flush();
+            if (this.journal.getRecords() >= Constants.JOURNAL_CHECKPOINT_RECORDS)
+                this.checkpoint();
+        }
+    }
+
+    /**
+     * Method to make the chunks stored so far and the journal records written so far durable
+     *
+     * @throws IOException On error syncing the local storage
+     * @see GroupCommitter
+     */
+    public void force() throws IOException {
+        // the bodies first, a record of a chunk must not outlive its body
+        this.store.force();
+        this.journal.force();
+    }
+
+    /**
+     * Method to write a full snapshot of the database and truncate the journal, the snapshot is written to a
+     * temporary file first so that a crash while writing it does not lose the previous one
+     */
+    private synchronized void checkpoint() {
+        File snapshot = new File(DB_FILENAME + ".tmp");
         try {
-            FileOutputStream fileOut = new FileOutputStream(DB_FILENAME);
+            FileOutputStream fileOut = new FileOutputStream(snapshot);
             ObjectOutputStream out = new ObjectOutputStream(fileOut);
             out.writeObject(this);
             out.flush();
+            // the journal is truncated next, the snapshot must be durable by then
+            fileOut.getFD().sync();
             out.close();
             fileOut.close();
+
+            Files.move(snapshot.toPath(), Paths.get(DB_FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.journal.truncate();
         } catch (IOException i) {
             i.printStackTrace();
         }
-
-        this.updateOccupation();
     }
 
     /**
-     * Method to update the Peer's Storage Occupation
+     * Method to reconcile the occupation counter with the chunks actually on the local storage, the counter is
+     * kept up to date by the store and delete operations, this is just a safety net that runs in the background.
+     * If any chunk is stored or deleted while the storage is being measured, the counter is left as it is until
+     * the next reconciliation
      */
-    private void updateOccupation() {
-        this.occupation = this.calculateOccupation();
+    public void reconcileOccupation() {
+        long before = this.occupation.get();
+        long measured = this.calculateOccupation();
+        if (measured < 0) return;
+
+        if (this.occupation.compareAndSet(before, measured) && before != measured) {
+            System.out.printf("[PIS] Occupation reconciled: %d -> %d\n", before, measured);
+        }
     }
 
     /**
-     * Method to store a SavedChunk on the local storage
+     * Method to store a SavedChunk on the local storage, the chunk is then marked as stored by this peer
+     * <p>
+     * The body is stored on the content store, if a body with the same hash is already there (e.g. the same chunk
+     * of another version of a file) the chunk just references it and nothing is written
+     * </p>
      *
      * @param chunk Chunk to be stored
+     * @return <code>true</code> if the chunk was stored
      * @see SavedChunk
      */
-    public void storeChunk(SavedChunk chunk) {
+    public boolean storeChunk(SavedChunk chunk) {
+        byte[] body = chunk.getBody();
+        String hash = IOUtils.hashContent(body);
         try {
-            String chunkPathName = String.format(CHUNK_PATH, PEER_DIRECTORY, chunk.getFileId(), chunk.getChunkNo());
-
-            Path path = Paths.get(chunkPathName);
-            Files.createDirectories(path.getParent());
+            this.chunkCache.invalidate(chunk.getKey());
+            // a chunk stored again with the same body keeps its reference, otherwise the new body is referenced
+            // before the previous one is dropped
+            String previous = chunk.getContentHash();
+            if (!hash.equals(previous)) {
+                this.acquireContent(hash, body);
+                if (previous != null) this.releaseContent(previous);
+                else this.deleteLegacyFile(chunk);
+            }
 
-            Files.write(path, chunk.getBody());
+            synchronized (this) {
+                chunk.setContentHash(hash);
+                chunk.setStored(true);
+                chunk.getPeers().add(this.peer.getPeerId());
+                this.journal.savedChunkStored(chunk, body.length);
+            }
 
             chunk.clearBody();
-
-            updateOccupation();
+            return true;
         } catch (IOException i) {
             System.out.println("[PIS] Couldn't Save chunk " + chunk.getChunkId());
             i.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Method to drop a chunk's reference to its body on the content store, the body is deleted along with its last
+     * reference
+     *
+     * @param chunk Chunk whose body is no longer needed
+     * @return <code>true</code> if the chunk had a body on the content store
+     */
+    private boolean releaseContent(SavedChunk chunk) {
+        String hash = chunk.getContentHash();
+        if (hash == null) return false;
+        chunk.setContentHash(null);
+        this.releaseContent(hash);
+        return true;
+    }
+
+    /**
+     * Helper to take a reference to a body, the first reference writes the body to the chunk store
+     *
+     * @throws IOException On error writing the body, no reference is taken then
+     */
+    private void acquireContent(String hash, byte[] body) throws IOException {
+        synchronized (this.lockOf(hash)) {
+            Integer refs = this.contentRefs.get(hash);
+            // a body left without references (e.g. the peer stopped before recording the chunk) is reused
+            if (refs == null && !this.store.contains(hash)) {
+                this.store.write(hash, body);
+                this.occupation.addAndGet(body.length);
+            }
+            this.contentRefs.put(hash, refs == null ? 1 : refs + 1);
+        }
+    }
+
+    /**
+     * Helper to drop a reference to a body, the last reference deletes the body from the chunk store
+     */
+    private void releaseContent(String hash) {
+        synchronized (this.lockOf(hash)) {
+            Integer refs = this.contentRefs.get(hash);
+            if (refs == null) return;
+            if (refs > 1) {
+                this.contentRefs.put(hash, refs - 1);
+                return;
+            }
+
+            this.contentRefs.remove(hash);
+            try {
+                this.occupation.addAndGet(-this.store.delete(hash));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Helper to get the lock guarding the references of a body
+     */
+    private Object lockOf(String hash) {
+        return this.contentLocks[Math.floorMod(hash.hashCode(), this.contentLocks.length)];
+    }
+
+    /**
+     * Helper to get the address of a saved chunk's body on the chunk store
+     *
+     * @return The address, or <code>null</code> for chunks stored before the chunk store (on their own file)
+     */
+    private String addressOf(Chunk chunk) {
+        SavedChunk saved = this.savedChunksMap.get(chunk.getKey());
+        if (saved == null && chunk instanceof SavedChunk) saved = (SavedChunk) chunk;
+        return saved != null ? saved.getContentHash() : null;
+    }
+
+    /**
+     * Helper to record that a saved chunk's body was read
+     */
+    private void touch(Chunk chunk) {
+        SavedChunk saved = this.savedChunksMap.get(chunk.getKey());
+        if (saved != null) saved.touch();
+    }
+
+    /**
+     * Helper to get the path of a chunk stored before the chunk store
+     */
+    private static Path legacyPath(Chunk chunk) {
+        return Paths.get(String.format(CHUNK_PATH, PEER_DIRECTORY, chunk.getFileId(), chunk.getChunkNo()));
+    }
+
+    /**
+     * Method to update the Stored Confirmations of one or more chunks of a file, both on the Sent Chunks Map and on
+     * the Saved Chunks Map, in a single pass (a STORED message may acknowledge several chunks at once)
+     *
+     * @param fileId   File ID of the chunks
+     * @param chunkNos Sequential numbers of the chunks stored
+     * @param replier  Peer who have stored the Chunks
+     * @return The sent chunks that were confirmed
+     */
+    public synchronized List<SentChunk> updateStoredConfirmations(String fileId, int[] chunkNos, int replier) {
+        List<SentChunk> confirmed = new ArrayList<>();
+        ChunkKey fileKey = ChunkKey.of(fileId, 0);
+
+        for (int chunkNo : chunkNos) {
+            ChunkKey key = fileKey.withChunkNo(chunkNo);
+
+            SentChunk sent = sentChunksMap.get(key);
+            if (sent != null) {
+                if (sent.getPeers().add(replier)) this.journal.peerChanged(true, true, fileId, chunkNo, replier);
+                confirmed.add(sent);
+            }
+
+            SavedChunk saved = savedChunksMap.get(key);
+            if (saved != null && saved.getPeers().add(replier)) {
+                this.journal.peerChanged(false, true, fileId, chunkNo, replier);
+            }
+        }
+        return confirmed;
+    }
+
+    /**
+     * Method to remove a Stored Confirmation from a chunk on the Sent Chunks Map
+     *
+     * @param chunk   Chunk to remove the confirmation from
+     * @param replier Peer who have removed the Chunk
+     */
+    public synchronized void removeStoredConfirmation(SentChunk chunk, int replier) {
+        if (chunk.getPeers().remove(replier)) {
+            this.journal.peerChanged(true, false, chunk.getFileId(), chunk.getChunkNo(), replier);
         }
+    }
+
+    /**
+     * Method to remove a Stored Confirmation from a chunk on the Saved Chunks Map
+     *
+     * @param chunk   Chunk to remove the confirmation from
+     * @param replier Peer who have removed the Chunk
+     */
+    public synchronized void removeStoredConfirmation(SavedChunk chunk, int replier) {
+        if (chunk.getPeers().remove(replier)) {
+            this.journal.peerChanged(false, false, chunk.getFileId(), chunk.getChunkNo(), replier);
+        }
+    }
+
+    /**
+     * Method to add a file being backed up by this peer
+     *
+     * @param pathname Pathname used as key on the backed up files map
+     * @param file     File being backed up
+     */
+    public synchronized void addBackedUpFile(String pathname, ServerFile file) {
+        this.backedUpFilesMap.put(pathname, file);
+        this.journal.fileBackedUp(pathname, file);
+    }
+
+    /**
+     * Method to add a chunk being backed up by this peer to the sent chunks map
+     *
+     * @param chunk Chunk being backed up
+     */
+    public synchronized void addSentChunk(SentChunk chunk) {
+        this.putSentChunk(chunk);
+        this.journal.sentChunkAdded(chunk);
+    }
+
+    /**
+     * Method to add a chunk to the sent chunks map and its index, without recording it on the journal
+     *
+     * @param chunk Chunk being backed up
+     */
+    void putSentChunk(SentChunk chunk) {
+        this.sentChunksMap.put(chunk.getKey(), chunk);
+        index(this.sentChunksByFile, chunk);
+    }
 
+    /**
+     * Method to add a chunk this peer is about to store to the saved chunks map, it is only recorded on the
+     * journal once it's actually stored
+     *
+     * @param chunk Chunk received on a PUTCHUNK message
+     * @see #storeChunk(SavedChunk)
+     */
+    public void addSavedChunk(SavedChunk chunk) {
+        this.savedChunksMap.put(chunk.getKey(), chunk);
+        index(this.savedChunksByFile, chunk);
     }
 
     /**
-     * Method to update Stored Confirmations on Sent Chunks Map
+     * Method to remove a chunk from the saved chunks map, this does not delete the chunk from the local storage
      *
-     * @param chunk   Chunk to update confirmation
-     * @param replier Peer who have stored the Chunk
+     * @param chunk Chunk to be removed
+     * @see #deleteChunk(Chunk)
      */
-    public void updateStoredConfirmation(SentChunk chunk, int replier) {
-        if (sentChunksMap.containsKey(chunk.getChunkId())) {
-            sentChunksMap.get(chunk.getChunkId()).getPeers().add(replier);
+    public synchronized void removeSavedChunk(Chunk chunk) {
+        SavedChunk removed = this.dropSavedChunk(chunk);
+        if (removed != null && removed.isStored()) {
+            this.journal.savedChunkRemoved(chunk.getFileId(), chunk.getChunkNo());
         }
     }
 
     /**
-     * Method to update Stored Confirmations on Saved Chunks Map
+     * Method to remove a chunk from the saved chunks map and its index, without recording it on the journal
+     *
+     * @param chunk Chunk to be removed
+     * @return The chunk removed, or <code>null</code> if it wasn't on the map
+     */
+    SavedChunk dropSavedChunk(Chunk chunk) {
+        SavedChunk removed = this.savedChunksMap.remove(chunk.getKey());
+        if (removed != null) unindex(this.savedChunksByFile, removed);
+        return removed;
+    }
+
+    /**
+     * Method to remove every chunk of a file from the sent chunks map and its index, without recording it on
+     * the journal
+     *
+     * @param fileId File ID whose sent chunks will be removed
+     */
+    void dropSentChunks(String fileId) {
+        Set<ChunkKey> keys = this.sentChunksByFile.remove(FileKey.of(fileId));
+        if (keys == null) return;
+        for (ChunkKey key : keys) this.sentChunksMap.remove(key);
+    }
+
+    /**
+     * Method to register a chunk being restored, the future is completed once the chunk's body arrives
+     *
+     * @param chunk Chunk to be restored
+     * @return The future for the chunk, shared if the chunk is already being restored
+     * @see #chunkArrived(SentChunk)
+     */
+    public CompletableFuture<SentChunk> expectChunk(SentChunk chunk) {
+        CompletableFuture<SentChunk> future = new CompletableFuture<>();
+        CompletableFuture<SentChunk> previous = this.pendingRestores.putIfAbsent(chunk.getKey(), future);
+        if (previous != null) return previous;
+
+        future.whenComplete((restored, e) -> this.pendingRestores.remove(chunk.getKey(), future));
+        return future;
+    }
+
+    /**
+     * @param key Key of the chunk
+     * @return <code>true</code> if the chunk is being restored and its body didn't arrive yet
+     */
+    public boolean isExpectingChunk(ChunkKey key) {
+        return this.pendingRestores.containsKey(key);
+    }
+
+    /**
+     * Method to signal that a chunk being restored has its body filled
+     *
+     * @param chunk Chunk restored
+     */
+    public void chunkArrived(SentChunk chunk) {
+        CompletableFuture<SentChunk> future = this.pendingRestores.get(chunk.getKey());
+        if (future != null) future.complete(chunk);
+    }
+
+    /**
+     * @param fileId File ID to look for
+     * @return The chunks of a file this peer has on the saved chunks map, sorted by their sequential number
+     */
+    public List<SavedChunk> getSavedChunks(String fileId) {
+        return chunksOf(this.savedChunksByFile, this.savedChunksMap, fileId);
+    }
+
+    /**
+     * @param fileId File ID to look for
+     * @return The chunks of a file backed up by this peer, sorted by their sequential number
+     */
+    public List<SentChunk> getSentChunks(String fileId) {
+        return chunksOf(this.sentChunksByFile, this.sentChunksMap, fileId);
+    }
+
+    /**
+     * Method to add a file to the deleted files set (used on the Delete Enhancement)
      *
-     * @param chunk   Chunk to update confirmation
-     * @param replier Peer who have stored the Chunk
+     * @param fileId Deleted file's ID
      */
-    public void updateStoredConfirmation(SavedChunk chunk, int replier) {
-        if (savedChunksMap.containsKey(chunk.getChunkId())) {
-            savedChunksMap.get(chunk.getChunkId()).getPeers().add(replier);
+    public synchronized void addDeletedFile(String fileId) {
+        if (this.deletedFiles.add(fileId)) {
+            this.journal.fileDeleted(fileId);
         }
     }
 
     /**
      * @return The sent chunks map
      */
-    public ConcurrentHashMap<String, SentChunk> getSentChunksMap() {
+    public ConcurrentHashMap<ChunkKey, SentChunk> getSentChunksMap() {
         return sentChunksMap;
     }
 
     /**
      * @return The saved chunks map
      */
-    public ConcurrentHashMap<String, SavedChunk> getSavedChunksMap() {
+    public ConcurrentHashMap<ChunkKey, SavedChunk> getSavedChunksMap() {
         return savedChunksMap;
     }
 
@@ -218,60 +687,88 @@ public class PeerInternalState implements Serializable {
             ServerFile file = entry.getValue();
             ret.append(file).append("\n");
 
-            List<SentChunk> chunks = new ArrayList<>();
+            BackupWindow window = this.peer.getBackupWindow(file.getFileId());
+            if (window != null)
+                ret.append("\t").append(window).append("\n");
 
-            for (Map.Entry<String, SentChunk> sentChunkEntry : this.sentChunksMap.entrySet()) {
-                SentChunk chunk = sentChunkEntry.getValue();
-                if (chunk.getFileId().equals(file.getFileId()))
-                    chunks.add(chunk);
-            }
-            chunks.sort(Comparator.comparingInt(Chunk::getChunkNo));
-            for (SentChunk chunk : chunks) {
+            for (SentChunk chunk : this.getSentChunks(file.getFileId())) {
                 ret.append("\t").append(chunk).append("\n");
             }
         }
         ret.append("-- Saved Chunks --\n");
-        for (Map.Entry<String, SavedChunk> savedChunkEntry : this.savedChunksMap.entrySet()) {
+        for (Map.Entry<ChunkKey, SavedChunk> savedChunkEntry : this.savedChunksMap.entrySet()) {
             SavedChunk chunk = savedChunkEntry.getValue();
             ret.append(chunk).append("\n");
         }
         ret.append("----- Storage -----").append("\n");
         ret.append(String.format("Capacity: %.2fKB\n", this.capacity / 1000.0));
-        ret.append(String.format("Occupation: %.2fKB\n", this.occupation / 1000.0));
+        ret.append(String.format("Occupation: %.2fKB\n", this.getOccupation() / 1000.0));
+        ret.append(String.format("Chunk Cache: %.2fKB | Hits: %d | Misses: %d\n", this.chunkCache.getSize() / 1000.0, this.chunkCache.getHits(), this.chunkCache.getMisses()));
+        GroupCommitter committer = this.peer.getGroupCommitter();
+        if (committer.isEnabled())
+            ret.append(String.format("Group Commit: %d groups | %.1f chunks/group | Sync: %.2fms avg, %.2fms max\n", committer.getGroups(), committer.getAverageGroupSize(), committer.getAverageSyncMillis(), committer.getMaxSyncMillis()));
         ret.append("-------------- END OF REPORT --------------").append("\n");
 
         return ret.toString();
     }
 
     /**
-     * This method will delete a chunk, delete empty folders and then update
-     * the current occupation
+     * This method will delete a chunk and then update the current occupation
+     * <p>
+     * A body on the chunk store is only deleted if no other chunk references it
+     * </p>
      *
      * @param chunk Chunk to be deleted
      */
     public void deleteChunk(Chunk chunk) {
-        String filepath = String.format(CHUNK_PATH, PEER_DIRECTORY, chunk.getFileId(), chunk.getChunkNo());
-        File file = new File(filepath);
+        SavedChunk saved = this.savedChunksMap.get(chunk.getKey());
+        if (saved == null && chunk instanceof SavedChunk) saved = (SavedChunk) chunk;
 
-        file.delete();
+        this.chunkCache.invalidate(chunk.getKey());
+        if (saved == null || !this.releaseContent(saved))
+            this.deleteLegacyFile(chunk);
+    }
 
-        this.deleteEmptyFolders();
-        this.updateOccupation();
+    /**
+     * Helper to delete a chunk stored on its own file, before the chunk store, the file's folder is deleted along
+     * with its last chunk
+     */
+    private void deleteLegacyFile(Chunk chunk) {
+        File file = legacyPath(chunk).toFile();
+        long size = file.length();
+        if (!file.delete()) return;
+        this.occupation.addAndGet(-size);
+
+        this.legacyChunks.computeIfPresent(chunk.getFileId(), (fileId, chunks) -> {
+            if (chunks > 1) return chunks - 1;
+
+            file.getParentFile().delete();
+            return null;
+        });
     }
 
     /**
-     * Method to delete empty folders
+     * Method to delete the empty folders left on the peer's directory (e.g. the folder of a file whose chunks were
+     * deleted while the peer was down), scheduled by the peer with a low priority
+     * <p>
+     * Only the folders right under the peer's directory are looked at, the chunk store takes care of its own
+     * </p>
      */
-    private void deleteEmptyFolders() {
-        try {
-            Files.walk(Paths.get(PEER_DIRECTORY))
-                    .sorted(Comparator.reverseOrder())
-                    .map(Path::toFile)
-                    .filter(File::isDirectory)
-                    .forEach(File::delete);
+    public void sweepFolders() {
+        Path storeDirectory = this.store.getDirectory();
+        int deleted = 0;
+        try (Stream<Path> paths = Files.list(Paths.get(PEER_DIRECTORY))) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                if (!Files.isDirectory(path) || path.equals(storeDirectory)) continue;
+                if (this.legacyChunks.containsKey(path.getFileName().toString())) continue;
+                // only empty folders can be deleted
+                if (path.toFile().delete()) deleted++;
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
+        if (deleted > 0)
+            System.out.printf("[PIS] Swept %d empty folders\n", deleted);
     }
 
     /**
@@ -280,12 +777,10 @@ public class PeerInternalState implements Serializable {
      * @param pathname File's pathname whose chunks will be removed from the sent chunks map
      */
     public void deleteBackedUpEntries(String pathname) {
-        String fileId = this.backedUpFilesMap.remove(pathname).getFileId();
-        for (Map.Entry<String, SentChunk> entry : this.sentChunksMap.entrySet()) {
-            SentChunk chunk = entry.getValue();
-            if (chunk.getFileId().equals(fileId)) {
-                this.sentChunksMap.remove(entry.getKey());
-            }
+        synchronized (this) {
+            String fileId = this.backedUpFilesMap.remove(pathname).getFileId();
+            this.dropSentChunks(fileId);
+            this.journal.backedUpFileRemoved(pathname);
         }
         this.commit();
     }
@@ -298,106 +793,83 @@ public class PeerInternalState implements Serializable {
     }
 
     /**
-     * Method to fill a Chunk's Body from the local storage, it's using Java's Non-Blocking IO, so no problem
-     * with thread safety here
+     * Method to read a saved Chunk's body from the local storage, through the chunk cache so a chunk read often
+     * (e.g. restored by several peers, or backed up again) is only read from disk once
      *
-     * @param chunk Chunk whose body will be filled
+     * @param chunk Chunk to be read
+     * @return A read-only buffer with the chunk's body, or <code>null</code> if it could not be read
+     * @see ChunkCache
      */
-    public void fillBodyFromDisk(Chunk chunk) {
-        if (chunk != null && chunk.getBody() == null) {
-            String filepath = String.format(CHUNK_PATH, PEER_DIRECTORY, chunk.getFileId(), chunk.getChunkNo());
-            File file = new File(filepath);
-            try {
-                chunk.setBody(Files.readAllBytes(file.toPath()));
-            } catch (IOException e) {
-                chunk.setBody(null);
-                e.printStackTrace();
-            }
+    public ByteBuffer readChunk(Chunk chunk) {
+        this.touch(chunk);
+        try {
+            String address = this.addressOf(chunk);
+            return this.chunkCache.get(chunk.getKey(), () -> address != null ? this.store.read(address) : FileChunkStore.readFile(legacyPath(chunk)));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
         }
     }
 
     /**
-     * Method to force a space reclaiming, it will start by deleting safe chunks (chunks whose replication degree is
-     * higher than the desired) and then if necessary it will delete the unsafe chunks, until either the occupation
-     * is lesser or equal than the capacity or there are no more chunks left to delete. Either way, when this method
-     * is called it's expected to also have interrupted the PUTCHUNK task handling for 60 seconds, leaving enough time
-     * for the successful deletion of chunks
+     * @return The cache of the saved chunks' bodies
      */
-    public void forceFreeSpace() {
-        ArrayList<SavedChunk> safeDeletions = new ArrayList<>();
-        ArrayList<SavedChunk> unsafeDeletions = new ArrayList<>();
-        for (Map.Entry<String, SavedChunk> entry : this.getSavedChunksMap().entrySet()) {
-            SavedChunk chunk = entry.getValue();
-            if (chunk.getPeers().size() > chunk.getReplicationDegree())
-                safeDeletions.add(chunk);
-            else
-                unsafeDeletions.add(chunk);
-        }
-
-        while (this.occupation > this.capacity && !safeDeletions.isEmpty()) {
-            SavedChunk chunk = safeDeletions.remove(0);
+    public ChunkCache getChunkCache() {
+        return chunkCache;
+    }
 
-            // System.out.printf("[PEER] Safe deleting %s\n", chunk.getChunkId());
-            this.removeChunk(chunk);
-        }
-        System.out.printf("[PIS] Occupation after safe deleting: %d\n", this.occupation);
-        while (this.occupation > this.capacity && !unsafeDeletions.isEmpty()) {
-            SavedChunk chunk = unsafeDeletions.remove(0);
+    /**
+     * Method to open a saved chunk's body for reading, so the chunk can be sent straight from the disk without
+     * loading its body
+     *
+     * @param chunk Chunk to be read
+     * @return The region of a file holding the chunk's body, to be closed by the caller
+     * @throws IOException If the chunk is not on the local storage
+     */
+    public ChunkStore.Region openChunk(Chunk chunk) throws IOException {
+        this.touch(chunk);
+        String address = this.addressOf(chunk);
+        if (address != null) return this.store.open(address);
 
-            // System.out.printf("[PEER] Unsafe deleting %s\n", chunk.getChunkId());
-            this.removeChunk(chunk);
-        }
-        System.out.printf("[PIS] Occupation after unsafe deleting: %d\n", this.occupation);
+        FileChannel channel = FileChannel.open(legacyPath(chunk), StandardOpenOption.READ);
+        return new ChunkStore.Region(channel, 0, channel.size());
     }
 
     /**
-     * Method to remove a chunk from the file system and from the saved chunks map
-     * <p>
-     * This method will permanently delete the chunk and send a REMOVED message after that, it's used on the
-     * reclaim protocol mostly, but can be used on the PUTCHUNK task if the Peer has not enough space to
-     * store a chunk but can free some space by deleting safe chunks (Chunks whose actual replication degree is
-     * actually higher than the desired)
+     * Method to force a space reclaiming, it will start by deleting safe chunks (chunks whose replication degree is
+     * higher than the desired) and then if necessary it will delete the unsafe chunks, until either the occupation
+     * is lesser or equal than the capacity or there are no more chunks left to delete, a REMOVED message is sent for
+     * each chunk deleted. Either way, when this method is called it's expected to also have interrupted the PUTCHUNK
+     * task handling for 60 seconds, leaving enough time for the successful deletion of chunks
      *
-     * @param chunk Chunk to be Deleted
+     * @see EvictionEngine
      */
-    private void removeChunk(Chunk chunk) {
-        this.deleteChunk(chunk);
-        this.getSavedChunksMap().remove(chunk.getChunkId());
-        this.commit();
-        Message message = new RemovedMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo());
-        this.peer.getMulticastControl().sendMessage(message);
+    public void forceFreeSpace() {
+        int evicted = this.eviction.evict(this.capacity, true, true);
+        System.out.printf("[PIS] Evicted %d chunks, occupation: %d\n", evicted, this.getOccupation());
     }
 
     /**
      * Method to free space by deleting unnecessary chunks (Chunks whose actual replication degree is actually higher
      * than the desired) it will lock PUTCHUNK requests while performing this task
+     * <p>
+     * Only as many chunks as needed to fit the new chunk are deleted
+     * </p>
      *
+     * @param needed Bytes needed on top of the current occupation
      * @return <code>true</code> if the operation finished successfully
+     * @see EvictionEngine
      */
-    public boolean freeSpace() {
+    public boolean freeSpace(long needed) {
         if (!acceptingRequests) return false;
         lockRequests(false);
         System.out.println("[PIS] Trying to free some space...");
 
-        ArrayList<SavedChunk> safeDeletions = new ArrayList<>();
-        for (Map.Entry<String, SavedChunk> entry : this.getSavedChunksMap().entrySet()) {
-            SavedChunk chunk = entry.getValue();
-            if (chunk.getPeers().size() > chunk.getReplicationDegree())
-                safeDeletions.add(chunk);
-        }
-
-        while (!safeDeletions.isEmpty()) {
-            SavedChunk chunk = safeDeletions.remove(0);
+        //! Apparently we do not have to send a message if we are removing chunks to clear space for new chunks
+        int evicted = this.eviction.evict(this.capacity - needed, false, false);
+        if (evicted > 0)
+            System.out.printf("[PIS] Safe deleted %d chunks\n", evicted);
 
-            System.out.printf("[PIS] Safe deleting %s\n", chunk.getChunkId());
-            this.deleteChunk(chunk);
-            this.getSavedChunksMap().remove(chunk.getChunkId());
-            this.commit();
-
-            //! Apparently we do not have to send a message if we are removing chunks to clear space for new chunks
-            // Message message = new RemovedMessage(this.peer.getProtocolVersion(), this.peer.getPeerId(), chunk.getFileId(), chunk.getChunkNo());
-            // this.peer.getMulticastControl().sendMessage(message);
-        }
         lockRequests(true);
         return true;
     }
@@ -452,33 +924,53 @@ public class PeerInternalState implements Serializable {
     }
 
     /**
-     * Method to calculate the occupation if this peer
+     * Method to calculate the occupation if this peer by walking its directory, this is expensive on peers with
+     * many chunks so it's only used at startup and to reconcile the occupation counter
      *
-     * @return The size in bytes used to backup chunks or -1 if there's any error
+     * @return The size in bytes used to backup chunks (the database files and the chunk store's overhead are not
+     * counted) or -1 if there's any error
+     * @see #getOccupation()
      */
     public long calculateOccupation() {
         try {
-            return directorySize(new File(PEER_DIRECTORY));
-        } catch (IOException e) {
+            return directorySize(new File(PEER_DIRECTORY)) - databaseSize() - this.store.getOverhead();
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
         }
         return -1;
     }
 
+    /**
+     * @return The size in bytes of this peer's database files (snapshot and journal)
+     */
+    private long databaseSize() {
+        return new File(DB_FILENAME).length() + new File(DB_FILENAME + ".tmp").length() + new File(JOURNAL_FILENAME).length();
+    }
+
     /**
      * Method to set a new capacity for this peer to use
      *
      * @param capacity New value for this peer's capacity
      */
-    public void setCapacity(long capacity) {
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        this.journal.capacityChanged(capacity);
+    }
+
+    /**
+     * Method to set the capacity while replaying the journal, without recording it again
+     *
+     * @param capacity Capacity recorded on the journal
+     */
+    void restoreCapacity(long capacity) {
         this.capacity = capacity;
     }
 
     /**
-     * @return This peer's current occupation
+     * @return This peer's current occupation, kept up to date as chunks are stored and deleted
      */
     public long getOccupation() {
-        return occupation;
+        return occupation.get();
     }
 
     /**
@@ -497,16 +989,35 @@ public class PeerInternalState implements Serializable {
 
     /**
      * Method to calculate a directory size in bytes using Java's NIO walker
+     * <p>
+     * Files and folders deleted while the tree is being walked (e.g. chunks deleted meanwhile) are skipped
+     * </p>
      *
      * @param dir Directory used to calculate the size
      * @return The size in bytes for the directory passed as parameter
      * @throws IOException On error walking the tree
      */
     public long directorySize(File dir) throws IOException {
-        Path folder = dir.toPath();
-        return Files.walk(folder)
-                .filter(p -> p.toFile().isFile())
-                .mapToLong(p -> p.toFile().length())
-                .sum();
+        AtomicLong size = new AtomicLong(0);
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile()) size.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                throw e;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path directory, IOException e) throws IOException {
+                if (e != null && !(e instanceof NoSuchFileException)) throw e;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
     }
 }
@@ -6,9 +6,6 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
 import java.util.Map;
 
 /**
@@ -82,15 +79,7 @@ public class ReportMaker {
 
             builder.append(String.format(backedFile, serverFileEntry.getKey(), file.getFileId(), file.getReplicationDegree(), file.getSize()));
 
-            List<SentChunk> chunks = new ArrayList<>();
-
-            for (Map.Entry<String, SentChunk> sentChunkEntry : state.getSentChunksMap().entrySet()) {
-                SentChunk chunk = sentChunkEntry.getValue();
-                if (chunk.getFileId().equals(file.getFileId()))
-                    chunks.add(chunk);
-            }
-            chunks.sort(Comparator.comparingInt(Chunk::getChunkNo));
-            for (SentChunk chunk : chunks) {
+            for (SentChunk chunk : state.getSentChunks(file.getFileId())) {
                 builder.append(String.format(sentChunk, chunk.getChunkNo(), chunk.getPeers().size()));
             }
         }
@@ -99,7 +88,7 @@ public class ReportMaker {
                 "        <h2>Saved Chunks</h2>\n" +
                 "        <ul class=\"list-group mt-3\">");
 
-        for (Map.Entry<String, SavedChunk> savedChunkEntry : state.getSavedChunksMap().entrySet()) {
+        for (Map.Entry<ChunkKey, SavedChunk> savedChunkEntry : state.getSavedChunksMap().entrySet()) {
             SavedChunk chunk = savedChunkEntry.getValue();
             builder.append(String.format(savedChunk, chunk.getFileId(), chunk.getChunkNo(), chunk.getReplicationDegree(), chunk.getPeers().size(), chunk.getSize()));
         }
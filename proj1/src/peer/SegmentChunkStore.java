@@ -0,0 +1,596 @@
+package peer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Log-structured chunk store, the bodies are appended to large segment files instead of having a file each
+ * <p>
+ * Segments live on <code>peerN/segments</code> and only the last one (the active segment) is written to, once it
+ * reaches {@link Constants#SEGMENT_SIZE} bytes it's sealed and a new one is started. A segment is a sequence of
+ * records:
+ * </p>
+ * <ul>
+ *     <li>PUT: <code>1 | address length (1) | address | body length (4) | body</code></li>
+ *     <li>DELETE (tombstone): <code>2 | address length (1) | address | segment (4) | offset (8)</code>, the segment
+ *     and offset of the body deleted</li>
+ * </ul>
+ * <p>
+ * The index (address to segment, offset and length) is kept in memory and rebuilt on load by replaying the segments
+ * in order. Sealed segments get a hints file with their records without the bodies, so loading them doesn't read
+ * the bodies, the records are kept in memory as they're appended and the hints file is written by the background
+ * maintenance, so sealing a segment doesn't stall the writers. Deleting a body only appends a tombstone, segments with more than {@link Constants#SEGMENT_DEAD_RATIO}
+ * of dead bytes are compacted in the background: their live bodies (and the tombstones still needed) are appended to
+ * the active segment and the segment is deleted.
+ * </p>
+ *
+ * @see ChunkStore
+ */
+public class SegmentChunkStore implements ChunkStore {
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final String SEGMENT_NAME = "%08d.seg";
+    private static final String HINTS_NAME = "%08d.hints";
+
+    private final Path directory;
+    // guards the segments and the active segment, the index is only changed while holding the write lock
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // address -> body on a segment
+    private final ConcurrentHashMap<String, Entry> index = new ConcurrentHashMap<>();
+    private Segment active;
+    // segments written since the last force, guarded by the write lock
+    private Set<Segment> unsynced = new LinkedHashSet<>();
+    // held while syncing, so a compacted segment is not closed while it's being synced
+    private final Object forceLock = new Object();
+
+    /**
+     * Constructor for the store, every segment on the folder is loaded
+     *
+     * @param directory Folder holding the segments
+     * @throws IOException On error reading the segments
+     */
+    public SegmentChunkStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+
+        List<Integer> ids = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(".seg"))
+                    .forEach(name -> ids.add(Integer.parseInt(name.substring(0, name.length() - 4))));
+        }
+        ids.sort(null);
+
+        for (int i = 0; i < ids.size(); i++) {
+            boolean last = i == ids.size() - 1;
+            Segment segment = new Segment(ids.get(i));
+            this.segments.put(segment.id, segment);
+
+            List<Record> records = last ? null : this.readHints(segment);
+            if (records == null) {
+                records = this.scan(segment, last);
+                if (!last) segment.hintsSize = this.writeHints(segment, records);
+                else if (Files.exists(segment.hintsPath)) segment.hintsSize = Files.size(segment.hintsPath);
+                else segment.records = records;
+            }
+            for (Record record : records) this.apply(segment, record);
+        }
+
+        // a sealed segment is never written again, its hints would be out of date
+        Segment last = this.segments.isEmpty() ? null : this.segments.lastEntry().getValue();
+        if (last != null && last.size < Constants.SEGMENT_SIZE && !Files.exists(last.hintsPath)) {
+            this.active = last;
+        } else {
+            this.roll();
+        }
+        System.out.printf("[STORE] Loaded %d bodies from %d segments\n", this.index.size(), this.segments.size());
+    }
+
+    /**
+     * @param peerDirectory Peer's directory
+     * @return The folder of this engine inside the peer's directory
+     */
+    public static Path directoryOf(String peerDirectory) {
+        return Paths.get(peerDirectory, "segments");
+    }
+
+    @Override
+    public void write(String address, byte[] body) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            if (this.index.containsKey(address)) return;
+            this.appendPut(address, ByteBuffer.wrap(body));
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Method to sync the segments written since the last force, only the appends are waited for, the store can
+     * still be written to while syncing
+     */
+    @Override
+    public void force() throws IOException {
+        synchronized (this.forceLock) {
+            Set<Segment> segments;
+            this.lock.writeLock().lock();
+            try {
+                segments = this.unsynced;
+                this.unsynced = new LinkedHashSet<>();
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+            for (Segment segment : segments) {
+                if (segment.channel.isOpen()) segment.channel.force(false);
+            }
+        }
+    }
+
+    @Override
+    public ByteBuffer read(String address) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.entryOf(address);
+            ByteBuffer body = ByteBuffer.allocateDirect(entry.length);
+            readFully(this.segments.get(entry.segment).channel, body, entry.offset);
+            body.flip();
+            return body.asReadOnlyBuffer();
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Region open(String address) throws IOException {
+        this.lock.readLock().lock();
+        try {
+            Entry entry = this.entryOf(address);
+            // a channel of its own, the segment may be compacted away while the body is being sent
+            FileChannel channel = FileChannel.open(this.segments.get(entry.segment).path, StandardOpenOption.READ);
+            return new Region(channel, entry.offset, entry.length);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long delete(String address) throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            Entry entry = this.index.get(address);
+            if (entry == null) return 0;
+
+            this.appendDelete(address, entry.segment, entry.offset);
+            this.index.remove(address);
+            this.segments.get(entry.segment).live -= entry.length;
+            return entry.length;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean contains(String address) {
+        return this.index.containsKey(address);
+    }
+
+    @Override
+    public List<String> addresses() {
+        return new ArrayList<>(this.index.keySet());
+    }
+
+    /**
+     * @return Bytes on the segments and hints files that are not live bodies (record headers, tombstones and
+     * deleted bodies waiting for compaction)
+     */
+    @Override
+    public long getOverhead() {
+        this.lock.readLock().lock();
+        try {
+            long overhead = 0;
+            for (Segment segment : this.segments.values()) {
+                overhead += segment.size + segment.hintsSize - segment.live;
+            }
+            return overhead;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    //! Not documented
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Method to write the hints of the segments sealed since the last run and compact the sealed segments with too
+     * many dead bytes, the live bodies are moved one at a time so the store can still be used meanwhile
+     */
+    @Override
+    public void maintain() {
+        List<Segment> sealed = new ArrayList<>();
+        List<Segment> victims = new ArrayList<>();
+        this.lock.readLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) {
+                if (segment == this.active) continue;
+                if (segment.records != null) sealed.add(segment);
+                if (segment.live < segment.size * (1 - Constants.SEGMENT_DEAD_RATIO)) victims.add(segment);
+            }
+        } finally {
+            this.lock.readLock().unlock();
+        }
+
+        for (Segment segment : sealed) {
+            try {
+                this.seal(segment);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (Segment segment : victims) {
+            try {
+                this.compact(segment);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Method to move the live bodies and the tombstones still needed out of a sealed segment and delete it
+     */
+    private void compact(Segment segment) throws IOException {
+        List<Record> records = segment.records;
+        if (records == null) records = this.readHints(segment);
+        if (records == null) records = this.scan(segment, false);
+
+        int moved = 0;
+        for (Record record : records) {
+            this.lock.writeLock().lock();
+            try {
+                if (record.type == PUT) {
+                    Entry entry = this.index.get(record.address);
+                    if (entry == null || entry.segment != segment.id || entry.offset != record.offset) continue;
+
+                    ByteBuffer body = ByteBuffer.allocate(entry.length);
+                    readFully(segment.channel, body, entry.offset);
+                    body.flip();
+                    this.appendPut(record.address, body);
+                    segment.live -= entry.length;
+                    moved++;
+                } else if (record.target != segment.id && this.segments.containsKey(record.target)) {
+                    // the deleted body is still on its segment, without the tombstone it would be back on load
+                    this.appendDelete(record.address, record.target, record.offset);
+                }
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+
+        // the bodies moved must be durable before their old copies are gone
+        this.force();
+        synchronized (this.forceLock) {
+            this.lock.writeLock().lock();
+            try {
+                this.segments.remove(segment.id);
+                this.unsynced.remove(segment);
+                segment.channel.close();
+                Files.deleteIfExists(segment.path);
+                Files.deleteIfExists(segment.hintsPath);
+            } finally {
+                this.lock.writeLock().unlock();
+            }
+        }
+        System.out.printf("[STORE] Compacted segment %d, %d bodies moved\n", segment.id, moved);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.lock.writeLock().lock();
+        try {
+            for (Segment segment : this.segments.values()) segment.channel.close();
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper to find a body on the index
+     */
+    private Entry entryOf(String address) throws IOException {
+        Entry entry = this.index.get(address);
+        if (entry == null) throw new NoSuchFileException(address);
+        return entry;
+    }
+
+    /**
+     * Helper to append a PUT record to the active segment and index the body, called with the write lock held
+     */
+    private void appendPut(String address, ByteBuffer body) throws IOException {
+        byte[] name = address.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer header = ByteBuffer.allocate(2 + name.length + Integer.BYTES);
+        header.put(PUT).put((byte) name.length).put(name).putInt(body.remaining()).flip();
+
+        Segment segment = this.reserve(header.remaining() + body.remaining());
+        long position = segment.size;
+        int length = body.remaining();
+        writeFully(segment.channel, header, position);
+        writeFully(segment.channel, body, position + header.capacity());
+
+        this.index.put(address, new Entry(segment.id, position + header.capacity(), length));
+        segment.records.add(Record.put(address, position + header.capacity(), length));
+        segment.size = position + header.capacity() + length;
+        segment.live += length;
+        this.unsynced.add(segment);
+    }
+
+    /**
+     * Helper to append a DELETE record to the active segment, called with the write lock held
+     */
+    private void appendDelete(String address, int target, long offset) throws IOException {
+        byte[] name = address.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer record = ByteBuffer.allocate(2 + name.length + Integer.BYTES + Long.BYTES);
+        record.put(DELETE).put((byte) name.length).put(name).putInt(target).putLong(offset).flip();
+
+        Segment segment = this.reserve(record.remaining());
+        writeFully(segment.channel, record, segment.size);
+        segment.records.add(Record.delete(address, target, offset));
+        segment.size += record.capacity();
+        this.unsynced.add(segment);
+    }
+
+    /**
+     * Helper to get the segment a record is appended to, a new active segment is started first if the record
+     * doesn't fit on the current one, whose hints are left for the background maintenance
+     */
+    private Segment reserve(int bytes) throws IOException {
+        if (this.active.size > 0 && this.active.size + bytes > Constants.SEGMENT_SIZE) {
+            this.roll();
+        }
+        return this.active;
+    }
+
+    /**
+     * Helper to write the hints of a sealed segment from the records kept since it was written, the segment is
+     * synced first so the hints never list a record that is not on the disk
+     */
+    private void seal(Segment segment) throws IOException {
+        segment.channel.force(false);
+        long hintsSize = this.writeHints(segment, segment.records);
+
+        this.lock.writeLock().lock();
+        try {
+            segment.hintsSize = hintsSize;
+            segment.records = null;
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Helper to start a new active segment
+     */
+    private void roll() throws IOException {
+        int id = this.segments.isEmpty() ? 0 : this.segments.lastKey() + 1;
+        this.active = new Segment(id);
+        this.active.records = new ArrayList<>();
+        this.segments.put(id, this.active);
+    }
+
+    /**
+     * Helper to apply a record to the index while loading
+     */
+    private void apply(Segment segment, Record record) {
+        if (record.type == PUT) {
+            Entry previous = this.index.put(record.address, new Entry(segment.id, record.offset, record.length));
+            if (previous != null) this.segments.get(previous.segment).live -= previous.length;
+            segment.live += record.length;
+            return;
+        }
+
+        // only the body the tombstone was written for is deleted, the address may have been stored again since
+        Entry entry = this.index.get(record.address);
+        if (entry != null && entry.segment == record.target && entry.offset == record.offset) {
+            this.index.remove(record.address);
+            this.segments.get(entry.segment).live -= entry.length;
+        }
+    }
+
+    /**
+     * Helper to read the records of a segment from the segment itself, skipping the bodies
+     *
+     * @param segment  Segment to be read
+     * @param truncate <code>true</code> to cut an incomplete record at the end (the peer stopped while writing it)
+     */
+    private List<Record> scan(Segment segment, boolean truncate) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = segment.channel.size();
+        long position = 0;
+        ByteBuffer head = ByteBuffer.allocate(2);
+
+        while (position + 2 <= size) {
+            head.clear();
+            readFully(segment.channel, head, position);
+            byte type = head.get(0);
+            int nameLength = head.get(1) & 0xFF;
+            if (type != PUT && type != DELETE) break;
+
+            int tail = type == PUT ? Integer.BYTES : Integer.BYTES + Long.BYTES;
+            if (position + 2 + nameLength + tail > size) break;
+            ByteBuffer rest = ByteBuffer.allocate(nameLength + tail);
+            readFully(segment.channel, rest, position + 2);
+            rest.flip();
+            byte[] name = new byte[nameLength];
+            rest.get(name);
+            String address = new String(name, StandardCharsets.US_ASCII);
+
+            long end = position + 2 + nameLength + tail;
+            if (type == PUT) {
+                int length = rest.getInt();
+                if (end + length > size) break;
+                records.add(Record.put(address, end, length));
+                end += length;
+            } else {
+                records.add(Record.delete(address, rest.getInt(), rest.getLong()));
+            }
+            position = end;
+        }
+
+        if (position < size && truncate) {
+            System.out.printf("[STORE] Segment %d ends with an incomplete record, cutting it\n", segment.id);
+            segment.channel.truncate(position);
+        }
+        segment.size = position;
+        return records;
+    }
+
+    /**
+     * Helper to write the hints file of a sealed segment, written to a temporary file first so a partial hints file
+     * is never read
+     *
+     * @return Size of the hints file
+     */
+    private long writeHints(Segment segment, List<Record> records) throws IOException {
+        Path tmp = Paths.get(segment.hintsPath + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(records.size());
+            for (Record record : records) {
+                out.writeByte(record.type);
+                out.writeUTF(record.address);
+                if (record.type == PUT) {
+                    out.writeLong(record.offset);
+                    out.writeInt(record.length);
+                } else {
+                    out.writeInt(record.target);
+                    out.writeLong(record.offset);
+                }
+            }
+        }
+        Files.move(tmp, segment.hintsPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(segment.hintsPath);
+    }
+
+    /**
+     * Helper to read the records of a sealed segment from its hints file
+     *
+     * @return The records, or <code>null</code> if the segment has no readable hints file
+     */
+    private List<Record> readHints(Segment segment) {
+        if (!Files.exists(segment.hintsPath)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.hintsPath)))) {
+            int count = in.readInt();
+            List<Record> records = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte type = in.readByte();
+                String address = in.readUTF();
+                if (type == PUT) records.add(Record.put(address, in.readLong(), in.readInt()));
+                else records.add(Record.delete(address, in.readInt(), in.readLong()));
+            }
+            segment.size = segment.channel.size();
+            segment.hintsSize = Files.size(segment.hintsPath);
+            return records;
+        } catch (IOException e) {
+            System.out.printf("[STORE] Could not read the hints of segment %d, reading the segment\n", segment.id);
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Segment file, along with how many of its bytes are live bodies
+     */
+    private class Segment {
+        private final int id;
+        private final Path path;
+        private final Path hintsPath;
+        private final FileChannel channel;
+        private long size = 0;
+        private long hintsSize = 0;
+        private long live = 0;
+        // records appended to the segment, kept until its hints are written (null once they are)
+        private List<Record> records;
+
+        Segment(int id) throws IOException {
+            this.id = id;
+            this.path = directory.resolve(String.format(SEGMENT_NAME, id));
+            this.hintsPath = directory.resolve(String.format(HINTS_NAME, id));
+            this.channel = FileChannel.open(this.path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+    }
+
+    /**
+     * Position of a body on a segment
+     */
+    private static class Entry {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Entry(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Record of a segment, without the body: for a PUT the offset and length of the body, for a DELETE the segment
+     * and offset of the body deleted
+     */
+    private static class Record {
+        private final byte type;
+        private final String address;
+        private final long offset;
+        private final int length;
+        private final int target;
+
+        private Record(byte type, String address, long offset, int length, int target) {
+            this.type = type;
+            this.address = address;
+            this.offset = offset;
+            this.length = length;
+            this.target = target;
+        }
+
+        static Record put(String address, long offset, int length) {
+            return new Record(PUT, address, offset, length, -1);
+        }
+
+        static Record delete(String address, int target, long offset) {
+            return new Record(DELETE, address, offset, 0, target);
+        }
+    }
+}
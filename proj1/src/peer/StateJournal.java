@@ -0,0 +1,365 @@
+package peer;
+
+import files.ChunkKey;
+import files.SavedChunk;
+import files.SentChunk;
+import files.ServerFile;
+
+import java.io.*;
+import java.util.Set;
+
+/**
+ * Append-only write-ahead journal for the Peer's Internal State
+ * <p>
+ * Instead of serializing the whole database on every commit, each change to the state is appended to this journal
+ * as a small record (a chunk was stored, a peer confirmed a chunk, a file was deleted, etc.). A commit only has to
+ * flush the records written since the last one, so its cost depends on the size of the change and not on the size of
+ * the database. From time to time the state is checkpointed into the usual serialized snapshot and the journal is
+ * truncated. When loading, the snapshot is read and the journal replayed on top of it.
+ * </p>
+ * <p>
+ * Records are idempotent, so replaying a record whose change is already on the snapshot is harmless. A truncated
+ * record at the end of the journal (e.g. the peer crashed while writing it) ends the replay.
+ * </p>
+ *
+ * @see PeerInternalState#commit()
+ */
+public class StateJournal {
+    private static final byte SENT_CHUNK_ADDED = 1;
+    private static final byte SAVED_CHUNK_STORED = 2;
+    private static final byte SAVED_CHUNK_REMOVED = 3;
+    private static final byte SENT_PEER_ADDED = 4;
+    private static final byte SAVED_PEER_ADDED = 5;
+    private static final byte SENT_PEER_REMOVED = 6;
+    private static final byte SAVED_PEER_REMOVED = 7;
+    private static final byte FILE_BACKED_UP = 8;
+    private static final byte BACKED_UP_FILE_REMOVED = 9;
+    private static final byte FILE_DELETED = 10;
+    private static final byte CAPACITY = 11;
+    private static final byte SAVED_CHUNK_STORED_CONTENT = 12;
+    private static final byte SENT_CHUNK_COMPRESSED = 13;
+    private static final byte SAVED_CHUNK_COMPRESSED = 14;
+
+    private final File file;
+    private FileOutputStream fileOut;
+    private DataOutputStream out;
+    private int records = 0;
+
+    /**
+     * @param filename Journal's file on the local storage
+     */
+    public StateJournal(String filename) {
+        this.file = new File(filename);
+    }
+
+    /**
+     * Method to open the journal for appending new records
+     *
+     * @throws IOException On error opening the journal file
+     */
+    public synchronized void open() throws IOException {
+        this.fileOut = new FileOutputStream(this.file, true);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.fileOut));
+    }
+
+    /**
+     * Method to flush the records appended since the last flush to the local storage
+     */
+    public synchronized void flush() {
+        try {
+            if (out != null) out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to flush the records appended so far and make them durable
+     *
+     * @throws IOException On error syncing the journal file
+     */
+    public synchronized void force() throws IOException {
+        if (out == null) return;
+        out.flush();
+        this.fileOut.getChannel().force(false);
+    }
+
+    /**
+     * Method to discard every record on the journal, used after a checkpoint as the snapshot already has
+     * every change recorded here
+     *
+     * @throws IOException On error truncating the journal file
+     */
+    public synchronized void truncate() throws IOException {
+        if (out != null) out.close();
+        this.fileOut = new FileOutputStream(this.file, false);
+        this.out = new DataOutputStream(new BufferedOutputStream(this.fileOut));
+        this.records = 0;
+    }
+
+    /**
+     * @return Number of records on the journal since the last checkpoint
+     */
+    public synchronized int getRecords() {
+        return records;
+    }
+
+    /**
+     * Method to record a new chunk on the sent chunks map, and whether its body is compressed
+     *
+     * @param chunk Chunk being backed up by this peer
+     */
+    public synchronized void sentChunkAdded(SentChunk chunk) {
+        try {
+            writeChunk(SENT_CHUNK_ADDED, chunk.getFileId(), chunk.getChunkNo());
+            out.writeInt(chunk.getReplicationDegree());
+            if (chunk.isCompressed()) writeChunk(SENT_CHUNK_COMPRESSED, chunk.getFileId(), chunk.getChunkNo());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record a chunk stored on this peer, along with the peers known to store it at the moment, the
+     * address of its body on the content store and whether the body is compressed
+     *
+     * @param chunk Chunk stored on the local storage
+     * @param size  Chunk's body size in bytes
+     */
+    public synchronized void savedChunkStored(SavedChunk chunk, int size) {
+        try {
+            String hash = chunk.getContentHash();
+            writeChunk(hash != null ? SAVED_CHUNK_STORED_CONTENT : SAVED_CHUNK_STORED, chunk.getFileId(), chunk.getChunkNo());
+            out.writeInt(chunk.getReplicationDegree());
+            out.writeInt(size);
+            Set<Integer> peers = chunk.getPeers();
+            Integer[] ids = peers.toArray(new Integer[0]);
+            out.writeInt(ids.length);
+            for (Integer id : ids) out.writeInt(id);
+            if (hash != null) out.writeUTF(hash);
+            if (chunk.isCompressed()) writeChunk(SAVED_CHUNK_COMPRESSED, chunk.getFileId(), chunk.getChunkNo());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record the removal of a chunk from the saved chunks map
+     *
+     * @param fileId  Chunk's File ID
+     * @param chunkNo Chunk's Sequential Number
+     */
+    public synchronized void savedChunkRemoved(String fileId, int chunkNo) {
+        try {
+            writeChunk(SAVED_CHUNK_REMOVED, fileId, chunkNo);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record a change on the set of peers storing a chunk
+     *
+     * @param sent    <code>true</code> if the chunk is on the sent chunks map, <code>false</code> for the saved one
+     * @param added   <code>true</code> if the peer was added, <code>false</code> if it was removed
+     * @param fileId  Chunk's File ID
+     * @param chunkNo Chunk's Sequential Number
+     * @param peerId  ID of the peer added/removed
+     */
+    public synchronized void peerChanged(boolean sent, boolean added, String fileId, int chunkNo, int peerId) {
+        byte type = sent ? (added ? SENT_PEER_ADDED : SENT_PEER_REMOVED) : (added ? SAVED_PEER_ADDED : SAVED_PEER_REMOVED);
+        try {
+            writeChunk(type, fileId, chunkNo);
+            out.writeInt(peerId);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record a new entry on the backed up files map
+     *
+     * @param pathname Key on the backed up files map
+     * @param file     File being backed up
+     */
+    public synchronized void fileBackedUp(String pathname, ServerFile file) {
+        try {
+            out.writeByte(FILE_BACKED_UP);
+            out.writeUTF(pathname);
+            out.writeUTF(file.getPathname());
+            out.writeUTF(file.getFileId());
+            out.writeInt(file.getReplicationDegree());
+            out.writeDouble(file.getSize());
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record the removal of a backed up file, along with its sent chunks
+     *
+     * @param pathname Key on the backed up files map
+     */
+    public synchronized void backedUpFileRemoved(String pathname) {
+        try {
+            out.writeByte(BACKED_UP_FILE_REMOVED);
+            out.writeUTF(pathname);
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record a file ID added to the deleted files set
+     *
+     * @param fileId Deleted file's ID
+     */
+    public synchronized void fileDeleted(String fileId) {
+        try {
+            out.writeByte(FILE_DELETED);
+            out.writeUTF(fileId);
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Method to record a new capacity for this peer
+     *
+     * @param capacity New capacity in bytes
+     */
+    public synchronized void capacityChanged(long capacity) {
+        try {
+            out.writeByte(CAPACITY);
+            out.writeLong(capacity);
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Helper to write the common part of the records related to a single chunk
+     */
+    private void writeChunk(byte type, String fileId, int chunkNo) throws IOException {
+        out.writeByte(type);
+        out.writeUTF(fileId);
+        out.writeInt(chunkNo);
+        records++;
+    }
+
+    /**
+     * Method to replay every record on the journal on top of a state (usually just loaded from the snapshot)
+     *
+     * @param state State to apply the records to
+     * @return Number of records replayed
+     */
+    public int replay(PeerInternalState state) {
+        if (!file.exists()) return 0;
+
+        int replayed = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int type = in.read();
+                if (type == -1) break;
+                apply((byte) type, in, state);
+                replayed++;
+            }
+        } catch (EOFException e) {
+            System.out.println("[PIS] Journal ends with an incomplete record, ignoring it");
+        } catch (IOException e) {
+            System.out.println("[PIS] Could not replay the whole journal");
+            e.printStackTrace();
+        }
+        return replayed;
+    }
+
+    /**
+     * Method to apply a single record to the state
+     */
+    private static void apply(byte type, DataInputStream in, PeerInternalState state) throws IOException {
+        String fileId;
+        String pathname;
+        int chunkNo;
+        ChunkKey key;
+
+        switch (type) {
+            case SENT_CHUNK_ADDED: {
+                fileId = in.readUTF();
+                chunkNo = in.readInt();
+                SentChunk chunk = new SentChunk(fileId, chunkNo, in.readInt());
+                if (!state.getSentChunksMap().containsKey(chunk.getKey()))
+                    state.putSentChunk(chunk);
+                break;
+            }
+            case SAVED_CHUNK_STORED:
+            case SAVED_CHUNK_STORED_CONTENT: {
+                fileId = in.readUTF();
+                chunkNo = in.readInt();
+                SavedChunk chunk = new SavedChunk(fileId, chunkNo, in.readInt());
+                chunk.setSize(in.readInt());
+                chunk.setStored(true);
+                int peers = in.readInt();
+                for (int i = 0; i < peers; i++) chunk.getPeers().add(in.readInt());
+                if (type == SAVED_CHUNK_STORED_CONTENT) chunk.setContentHash(in.readUTF());
+                state.addSavedChunk(chunk);
+                break;
+            }
+            case SAVED_CHUNK_REMOVED:
+                state.dropSavedChunk(new SavedChunk(in.readUTF(), in.readInt()));
+                break;
+            case SENT_PEER_ADDED:
+            case SENT_PEER_REMOVED: {
+                key = ChunkKey.of(in.readUTF(), in.readInt());
+                int peerId = in.readInt();
+                SentChunk chunk = state.getSentChunksMap().get(key);
+                if (chunk == null) break;
+                if (type == SENT_PEER_ADDED) chunk.getPeers().add(peerId);
+                else chunk.getPeers().remove(peerId);
+                break;
+            }
+            case SAVED_PEER_ADDED:
+            case SAVED_PEER_REMOVED: {
+                key = ChunkKey.of(in.readUTF(), in.readInt());
+                int peerId = in.readInt();
+                SavedChunk chunk = state.getSavedChunksMap().get(key);
+                if (chunk == null) break;
+                if (type == SAVED_PEER_ADDED) chunk.getPeers().add(peerId);
+                else chunk.getPeers().remove(peerId);
+                break;
+            }
+            case SENT_CHUNK_COMPRESSED: {
+                SentChunk chunk = state.getSentChunksMap().get(ChunkKey.of(in.readUTF(), in.readInt()));
+                if (chunk != null) chunk.setCompressed(true);
+                break;
+            }
+            case SAVED_CHUNK_COMPRESSED: {
+                SavedChunk chunk = state.getSavedChunksMap().get(ChunkKey.of(in.readUTF(), in.readInt()));
+                if (chunk != null) chunk.setCompressed(true);
+                break;
+            }
+            case FILE_BACKED_UP:
+                pathname = in.readUTF();
+                ServerFile file = new ServerFile(in.readUTF(), in.readUTF(), in.readInt(), in.readDouble());
+                state.getBackedUpFilesMap().put(pathname, file);
+                break;
+            case BACKED_UP_FILE_REMOVED:
+                pathname = in.readUTF();
+                ServerFile removed = state.getBackedUpFilesMap().remove(pathname);
+                if (removed != null)
+                    state.dropSentChunks(removed.getFileId());
+                break;
+            case FILE_DELETED:
+                state.getDeletedFiles().add(in.readUTF());
+                break;
+            case CAPACITY:
+                state.restoreCapacity(in.readLong());
+                break;
+            default:
+                throw new IOException("Unknown journal record " + type);
+        }
+    }
+}
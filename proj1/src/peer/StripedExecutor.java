@@ -0,0 +1,135 @@
+package peer;
+
+import files.ChunkKey;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that runs the work related to a chunk on a lane (stripe) chosen by the chunk's key
+ * <p>
+ * The tasks of a lane run one at a time and in the order they were submitted, while different lanes run in
+ * parallel on the backing executor. Every message about a chunk (PUTCHUNK, STORED, GETCHUNK, CHUNK, REMOVED) and
+ * the jobs they schedule on it land on the same lane, so the chunk's state is only ever touched by one thread at a
+ * time and e.g. a STORED is never counted before the PUTCHUNK that precedes it has added the chunk to the map.
+ * </p>
+ * <p>
+ * Lanes must not block (network transfers and waits belong on the IO executor or the scheduler), a blocked lane
+ * holds back every chunk hashed to it. The number of lanes is {@link Constants#STRIPES} and can be changed with
+ * <code>-Dpeer.stripes=N</code>.
+ * </p>
+ */
+public class StripedExecutor {
+    // tasks a lane runs before giving its thread back, so a busy lane can't starve the others
+    private static final int LANE_BATCH = 64;
+
+    private final Lane[] lanes;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param stripes   Number of lanes
+     * @param executor  Executor running the lanes
+     * @param scheduler Scheduler keeping the delayed tasks until they're due
+     */
+    public StripedExecutor(int stripes, ExecutorService executor, ScheduledExecutorService scheduler) {
+        this.executor = executor;
+        this.scheduler = scheduler;
+        this.lanes = new Lane[Math.max(1, stripes)];
+        for (int i = 0; i < this.lanes.length; i++) {
+            this.lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * @return Number of lanes to use, from the system property if it's set
+     */
+    public static int configuredStripes() {
+        return Integer.getInteger(Constants.STRIPES_PROPERTY, Constants.STRIPES);
+    }
+
+    /**
+     * Method to run a task on the chunk's lane, after every task previously submitted for the lane
+     *
+     * @param key  Key of the chunk the task is about
+     * @param task Task to be run
+     */
+    public void execute(ChunkKey key, Runnable task) {
+        this.lanes[this.laneOf(key)].execute(task);
+    }
+
+    /**
+     * Method to run a task on the chunk's lane after a delay, the delay is spent on the scheduler
+     *
+     * @param key   Key of the chunk the task is about
+     * @param task  Task to be run
+     * @param delay Time to wait before queueing the task
+     * @param unit  Unit of the delay
+     * @return A future that can cancel the task until it's queued on the lane
+     */
+    public ScheduledFuture<?> schedule(ChunkKey key, Runnable task, long delay, TimeUnit unit) {
+        return this.scheduler.schedule(() -> this.execute(key, task), delay, unit);
+    }
+
+    /**
+     * @return Number of lanes
+     */
+    public int getStripes() {
+        return this.lanes.length;
+    }
+
+    /**
+     * Helper to pick a chunk's lane, the key's hash is spread so that consecutive chunks of a file (which only
+     * differ on the low bits) go to different lanes
+     */
+    private int laneOf(ChunkKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x45d9f3b;
+        h ^= (h >>> 16);
+        return Math.floorMod(h, this.lanes.length);
+    }
+
+    /**
+     * Serial queue of tasks, only submitted to the backing executor while it has work to do
+     */
+    private class Lane implements Runnable {
+        private final Queue<Runnable> tasks = new ArrayDeque<>();
+        private boolean running = false;
+
+        void execute(Runnable task) {
+            synchronized (this) {
+                this.tasks.add(task);
+                if (this.running) return;
+                this.running = true;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < LANE_BATCH; i++) {
+                Runnable task;
+                synchronized (this) {
+                    task = this.tasks.poll();
+                    if (task == null) {
+                        this.running = false;
+                        return;
+                    }
+                }
+
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            // more work left, yield the thread to the other lanes and carry on later
+            executor.execute(this);
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package tasks;
 
+import files.ChunkKey;
+import files.SavedChunk;
 import files.SentChunk;
 import messages.ChunkMessage;
 import peer.Peer;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 
 /**
  * Task responsible to process a CHUNK Message
@@ -28,41 +31,57 @@ public class ChunkTask extends Task {
      * <strong>Restore Enhancement</strong>
      * <p>
      * This Task will be different depending on the version of the peer. If the peer is enhanced it will receive
-     * on the body of the CHUNK message the IP Address and Port for the server socket created on the SendChunk Job,
-     * it will then connect to the server and start receiving data, calling the loadBodyFromTCP on the target
-     * chunk. The data will be transmitted with safety end to end. And there's no need to send the whole 64000B to
+     * on the body of the CHUNK message the IP Address and Port of the sender's transfer server and the token of the
+     * chunk offered there by the SendChunk Job, it will then claim the chunk over a pooled connection to that server,
+     * calling the loadBodyFromTCP on the target chunk. The data will be transmitted with safety end to end. And there's no need to send the whole 64000B to
      * the multicast channel
      * </p>
      */
     @Override
     public void run() {
-        if (this.peer.getInternalState().getSavedChunksMap().containsKey(message.getFileId() + "_" + message.getChunkNo())) {
+        ChunkKey key = message.getChunkKey();
+        SavedChunk saved = this.peer.getInternalState().getSavedChunksMap().get(key);
+        SentChunk chunk;
+        if (saved != null) {
             // this chunk is stored here, so it will be marked as "already provided by another peer"
-            this.peer.getInternalState().getSavedChunksMap().get(message.getFileId() + "_" + message.getChunkNo()).setAlreadyProvided(true);
-        } else if (this.peer.getInternalState().getSentChunksMap().containsKey(message.getFileId() + "_" + message.getChunkNo())) {
+            saved.setAlreadyProvided(true);
+        } else if ((chunk = this.peer.getInternalState().getSentChunksMap().get(key)) != null) {
             // this chunk is being retrieved for restoration
-            SentChunk chunk = this.peer.getInternalState().getSentChunksMap().get(message.getFileId() + "_" + message.getChunkNo());
             // if the message is not enhanced it will not use TCP because sender peer is not handling TCP connections
-            if (!this.message.isEnhanced()) {
+            ChunkMessage chunkMessage = (ChunkMessage) this.message;
+            if (!chunkMessage.isEnhanced() || chunkMessage.getAddress() == null) {
+                // vanilla message, or the sender fell back to sending the data on the message
+                // the body is only kept if a restore is waiting for it, late or duplicate CHUNKs are dropped
+                if (!this.peer.getInternalState().isExpectingChunk(key)) return;
                 chunk.setBody(message.getBody());
+                this.peer.getInternalState().chunkArrived(chunk);
                 System.out.printf("[RESTORE] Received %s : %d bytes from Peer%d\n", chunk.getChunkId(), message.getBody().length, message.getSenderId());
             }
             // if the peer is not enhanced but the message is, this peer is not handling TCP connections, and the protocol
             // must fallback to the default version of it
-            else if (!this.peer.isEnhanced() && this.message.isEnhanced()) {
+            else if (!this.peer.isEnhanced()) {
                 chunk.setConnectionFailed(true);
                 chunk.setReceivingData(false);
                 chunk.setBody(null);
                 System.out.printf("[RESTORE] Received an unsupported CHUNK message from Peer%d, trying to fallback to 1.0\nChunk: %s\n", message.getSenderId(), chunk.getChunkId());
+            } else if (chunk.isReceivingData() || !this.peer.getInternalState().isExpectingChunk(key)) {
+                // the chunk is already being claimed from another peer (or it's here already), this offer just expires
             } else {
-                try {
-                    chunk.loadBodyFromTCP(((ChunkMessage) message).getAddress(), ((ChunkMessage) message).getPort());
-                } catch (IOException e) {
-                    chunk.setConnectionFailed(true);
-                    chunk.setReceivingData(false);
-                    chunk.setBody(null);
-                    System.out.printf("[RESTORE] [TCP FAILED] %s\n", chunk.getChunkId());
-                }
+                // the transfer blocks, so it's done on the IO executor instead of holding the chunk's lane
+                chunk.setReceivingData(true);
+                InetSocketAddress server = new InetSocketAddress(chunkMessage.getAddress(), chunkMessage.getPort());
+                long token = chunkMessage.getToken();
+                this.peer.getIOExecutor().execute(() -> {
+                    try {
+                        chunk.loadBodyFromTCP(this.peer.getTransferClient(), server, token);
+                        this.peer.getInternalState().chunkArrived(chunk);
+                    } catch (IOException e) {
+                        chunk.setConnectionFailed(true);
+                        chunk.setReceivingData(false);
+                        chunk.setBody(null);
+                        System.out.printf("[RESTORE] [TCP FAILED] %s\n", chunk.getChunkId());
+                    }
+                });
             }
         }
     }
@@ -4,8 +4,6 @@ import files.SavedChunk;
 import messages.DeleteMessage;
 import peer.Peer;
 
-import java.util.Map;
-
 /**
  * Task responsible to process a DELETE Message
  */
@@ -24,13 +22,10 @@ public class DeleteTask extends Task {
     @Override
     public void run() {
         System.out.println("[DELETE] FileID: " + message.getFileId());
-        for (Map.Entry<String, SavedChunk> entry : this.peer.getInternalState().getSavedChunksMap().entrySet()) {
-            SavedChunk chunk = entry.getValue();
-            if (chunk.getFileId().equals(message.getFileId())) {
-                this.peer.getInternalState().deleteChunk(chunk);
-                this.peer.getInternalState().getSavedChunksMap().remove(chunk.getChunkId());
-                this.peer.getInternalState().commit();
-            }
+        for (SavedChunk chunk : this.peer.getInternalState().getSavedChunks(message.getFileId())) {
+            this.peer.getInternalState().deleteChunk(chunk);
+            this.peer.getInternalState().removeSavedChunk(chunk);
         }
+        this.peer.getInternalState().commit();
     }
 }
@@ -21,20 +21,14 @@ public class GetchunkTask extends Task {
 
     /**
      * This task will perform the necessary checks to send a chunk to the requesting peer,
-     * and then it will start a SendChunk task after a random delay of 0-400ms
+     * and then it will start a SendChunk task after a random delay of 0-400ms, the chunk is only read from disk
+     * by that job, and only if it has to go on a multicast message
      */
     @Override
     public void run() {
-        if (!this.peer.getInternalState().getSavedChunksMap().containsKey(message.getFileId() + "_" + message.getChunkNo())) {
-            // System.out.printf("[GETCHUNK] I dont have that chunk! %s\n", message.getFileId() + "_" + message.getChunkNo());
-            return;
-        }
-
-        SavedChunk chunk = this.peer.getInternalState().getSavedChunksMap().get(message.getFileId() + "_" + message.getChunkNo());
-        this.peer.getInternalState().fillBodyFromDisk(chunk);
-
-        if (chunk.getBody() == null) {
-            // System.out.println("[GETCHUNK] I was supposed to have that chunk, but I don't!");
+        SavedChunk chunk = this.peer.getInternalState().getSavedChunksMap().get(message.getChunkKey());
+        if (chunk == null) {
+            // System.out.printf("[GETCHUNK] I dont have that chunk! %s\n", message.getChunkKey());
             return;
         }
 
@@ -0,0 +1,64 @@
+package tasks;
+
+import files.ChunkKey;
+import files.SavedChunk;
+import jobs.SendChunk;
+import messages.GetchunksMessage;
+import peer.Peer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Task responsible to process a GETCHUNKS Message
+ */
+public class GetchunksTask extends Task {
+    /**
+     * @param message GETCHUNKS message received on the multicast channel
+     * @param peer    Peer responsible for this task
+     */
+    public GetchunksTask(GetchunksMessage message, Peer peer) {
+        super(message, peer);
+    }
+
+    /**
+     * This task will pick the requested chunks this peer has and is not already sending, and after a single random
+     * delay (the same as the GETCHUNK task) it will start a SendChunk job for each of them on the IO executor. The
+     * chunks are only read by those jobs, so a big request doesn't load every chunk at once
+     *
+     * @see GetchunkTask
+     */
+    @Override
+    public void run() {
+        // vanilla peers only answer single GETCHUNKs, the initiator falls back to them on its retries
+        if (!this.peer.isEnhanced()) return;
+
+        GetchunksMessage request = (GetchunksMessage) message;
+        ChunkKey fileKey = ChunkKey.of(message.getFileId(), 0);
+        List<SavedChunk> chunks = new ArrayList<>();
+        for (int chunkNo : request.getChunkNos()) {
+            SavedChunk chunk = this.peer.getInternalState().getSavedChunksMap().get(fileKey.withChunkNo(chunkNo));
+            // this peer doesn't have the chunk or is already handling it
+            if (chunk == null || chunk.isBeingHandled()) continue;
+
+            chunk.setBeingHandled(true);
+            chunk.setAlreadyProvided(false);
+            chunks.add(chunk);
+        }
+
+        if (chunks.isEmpty()) return;
+
+        // every peer storing the chunks gets the same request, going through them in a different order means
+        // they'll mostly see each other's CHUNK messages before sending the same chunk twice
+        Collections.shuffle(chunks);
+
+        int timeout = getSleepTime();
+        this.peer.getRequestsExecutor().schedule(() -> {
+            for (SavedChunk chunk : chunks) {
+                this.peer.getIOExecutor().execute(new SendChunk(request, chunk, this.peer));
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+    }
+}
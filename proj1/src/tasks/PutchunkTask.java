@@ -31,7 +31,10 @@ public class PutchunkTask extends Task {
      */
     @Override
     public void run() {
-        SavedChunk chunk = new SavedChunk(message.getFileId(), message.getChunkNo(), message.getReplicationDegree(), message.getBody());
+        // the body is only copied out of the received packet if this peer is going to keep the chunk
+        SavedChunk chunk = new SavedChunk(message.getFileId(), message.getChunkNo(), message.getReplicationDegree());
+        // the body is stored as it arrives, compressed or not, only the initiator decompresses it
+        chunk.setCompressed(((PutchunkMessage) message).isCompressed());
 
         Message reply = new StoredMessage(peer.getProtocolVersion(), peer.getPeerId(), message.getFileId(), message.getChunkNo());
 
@@ -40,23 +43,24 @@ public class PutchunkTask extends Task {
             return;
         }
 
-        if (chunk.isStored() && this.peer.getInternalState().getSavedChunksMap().containsKey(chunk.getChunkId())) {
+        if (chunk.isStored() && this.peer.getInternalState().getSavedChunksMap().containsKey(chunk.getKey())) {
             // This peer has this chunk but it will send a reply anyways cause it indicates that it has saved the chunk (UDP unreliability)
             chunk.setReceivedPutchunk(true);
-            peer.getRequestsExecutor().schedule(new SendStoredChunk(chunk, peer, reply), this.getSleepTime(), TimeUnit.MILLISECONDS);
-        } else if (!this.peer.getInternalState().getSentChunksMap().containsKey(chunk.getChunkId())) {
+            peer.getChunkExecutor().schedule(chunk.getKey(), new SendStoredChunk(chunk, peer, reply, message.getProtocolVersion()), this.getSleepTime(), TimeUnit.MILLISECONDS);
+        } else if (!this.peer.getInternalState().getSentChunksMap().containsKey(chunk.getKey())) {
             // This peer has no storage left to store the chunk received
-            if (chunk.getBody().length + this.peer.getInternalState().getOccupation() > this.peer.getInternalState().getCapacity()) {
+            if (message.getBodyLength() + this.peer.getInternalState().getOccupation() > this.peer.getInternalState().getCapacity()) {
                 // this peer will try to free space by removing chunks which have higher replication degree than desired
-                if (this.peer.getInternalState().freeSpace()) {
+                if (this.peer.getInternalState().freeSpace(message.getBodyLength())) {
                     // it will now check again if there's enough space to store the chunk
-                    if (chunk.getBody().length + this.peer.getInternalState().getOccupation() > this.peer.getInternalState().getCapacity()) {
+                    if (message.getBodyLength() + this.peer.getInternalState().getOccupation() > this.peer.getInternalState().getCapacity()) {
                         // I dont have the storage needed to backup that, i'm afraid
                         System.out.printf("[PIS] Not enough space for %s\n", chunk.getChunkId());
                     } else {
                         // it has enough space and it will store the message
-                        peer.getInternalState().getSavedChunksMap().put(chunk.getChunkId(), chunk);
-                        peer.getRequestsExecutor().schedule(new SendStoredChunk(chunk, peer, reply), this.getSleepTime(), TimeUnit.MILLISECONDS);
+                        chunk.setBody(message.getBody());
+                        peer.getInternalState().addSavedChunk(chunk);
+                        peer.getChunkExecutor().schedule(chunk.getKey(), new SendStoredChunk(chunk, peer, reply, message.getProtocolVersion()), this.getSleepTime(), TimeUnit.MILLISECONDS);
                     }
                 } else {
                     // couldn't try to free space, maybe some other putchunk process is trying to
@@ -64,12 +68,13 @@ public class PutchunkTask extends Task {
                 }
             } else {
                 // there's enough space, wont even try to free some
-                peer.getInternalState().getSavedChunksMap().put(chunk.getChunkId(), chunk);
+                chunk.setBody(message.getBody());
+                peer.getInternalState().addSavedChunk(chunk);
 
                 if (this.peer.isEnhanced()) {
-                    peer.getRequestsExecutor().schedule(new SendStoredChunk(chunk, peer, reply), this.getSleepTime(), TimeUnit.MILLISECONDS);
+                    peer.getChunkExecutor().schedule(chunk.getKey(), new SendStoredChunk(chunk, peer, reply, message.getProtocolVersion()), this.getSleepTime(), TimeUnit.MILLISECONDS);
                 } else {
-                    peer.getRequestsExecutor().schedule(new SendStoredChunkVanilla(chunk, peer, reply), this.getSleepTime(), TimeUnit.MILLISECONDS);
+                    peer.getChunkExecutor().schedule(chunk.getKey(), new SendStoredChunkVanilla(chunk, peer, reply, message.getProtocolVersion()), this.getSleepTime(), TimeUnit.MILLISECONDS);
                 }
             }
         }
@@ -1,6 +1,8 @@
 package tasks;
 
-import files.Chunk;
+import files.ChunkKey;
+import files.SavedChunk;
+import files.SentChunk;
 import jobs.ReBackupChunk;
 import messages.RemovedMessage;
 import peer.Peer;
@@ -23,30 +25,48 @@ public class RemovedTask extends Task {
      * This method checks if the REMOVED message is related to a stored chunk, if it is it will remove the sender ID
      * from the chunk's peer set, and if the new replication degree is lower than the desired replication degree
      * it will trigger a backup operation for this chunk. Otherwise, if this REMOVED message is related to a sent chunk
-     * it will only remove the sender ID from the chunk's peer set
+     * it will only remove the sender ID from the chunk's peer set. A REMOVEDBATCH message is only parsed here, each
+     * of its chunks is then processed on the chunk's lane, like a plain REMOVED
+     *
+     * @see messages.RemovedBatchMessage
      */
     @Override
     public void run() {
         // System.out.println("[PEER] Received a REMOVED message");
 
-        Chunk chunk;
+        if (message.getStripeKey() != null) {
+            // a plain REMOVED is already running on its chunk's lane
+            this.removed(message.getChunkKey());
+            return;
+        }
+
+        for (int chunkNo : ((RemovedMessage) message).getChunkNos()) {
+            ChunkKey key = ChunkKey.of(message.getFileId(), chunkNo);
+            this.peer.getChunkExecutor().execute(key, () -> this.removed(key));
+        }
+    }
+
+    /**
+     * Helper to process the removal of a single chunk by the sender
+     */
+    private void removed(ChunkKey key) {
+        SavedChunk chunk = this.peer.getInternalState().getSavedChunksMap().get(key);
+        SentChunk sent;
 
         // checking if peer has that chunk stored
-        if (this.peer.getInternalState().getSavedChunksMap().containsKey(message.getFileId() + "_" + message.getChunkNo())) {
-            chunk = this.peer.getInternalState().getSavedChunksMap().get(message.getFileId() + "_" + message.getChunkNo());
-            chunk.getPeers().remove(message.getSenderId());
+        if (chunk != null) {
+            this.peer.getInternalState().removeStoredConfirmation(chunk, message.getSenderId());
 
             chunk.setReceivedPutchunk(false);
 
             if (chunk.getPeers().size() < chunk.getReplicationDegree() && !chunk.receivedPutchunk()) {
                 int timeout = getSleepTimeDefault();
-                this.peer.getRequestsExecutor().schedule(new ReBackupChunk(chunk, peer), timeout, TimeUnit.MILLISECONDS);
+                this.peer.getChunkExecutor().schedule(key, new ReBackupChunk(chunk, peer), timeout, TimeUnit.MILLISECONDS);
             }
         }
         // checking if this a backed up chunk sent
-        else if (this.peer.getInternalState().getSentChunksMap().containsKey(message.getFileId() + "_" + message.getChunkNo())) {
-            chunk = this.peer.getInternalState().getSentChunksMap().get(message.getFileId() + "_" + message.getChunkNo());
-            chunk.getPeers().remove(message.getSenderId());
+        else if ((sent = this.peer.getInternalState().getSentChunksMap().get(key)) != null) {
+            this.peer.getInternalState().removeStoredConfirmation(sent, message.getSenderId());
         }
     }
 }
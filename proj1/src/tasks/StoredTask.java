@@ -1,10 +1,12 @@
 package tasks;
 
-import files.SavedChunk;
+import files.ChunkKey;
 import files.SentChunk;
 import messages.StoredMessage;
 import peer.Peer;
 
+import java.util.List;
+
 /**
  * Task responsible to process a STORED Message
  */
@@ -19,14 +21,37 @@ public class StoredTask extends Task {
 
     /**
      * This method will update the confirmations on the chunk's, either if this is related to a sent chunk or a
-     * saved chunk
+     * saved chunk. A STOREDBATCH message is only parsed here, each of its chunks is then updated on the chunk's
+     * lane, after whatever else is running for that chunk (e.g. the PUTCHUNK that adds it)
+     *
+     * @see messages.StoredBatchMessage
      */
     @Override
     public void run() {
-        SentChunk sentChunk = new SentChunk(message.getFileId(), message.getChunkNo());
-        SavedChunk savedChunk = new SavedChunk(message.getFileId(), message.getChunkNo());
+        int[] chunkNos = ((StoredMessage) message).getChunkNos();
+        if (message.getStripeKey() != null) {
+            // a plain STORED is already running on its chunk's lane
+            this.stored(chunkNos);
+            return;
+        }
+
+        for (int chunkNo : chunkNos) {
+            int[] chunk = {chunkNo};
+            peer.getChunkExecutor().execute(ChunkKey.of(message.getFileId(), chunkNo), () -> this.stored(chunk));
+        }
+    }
+
+    /**
+     * Helper to update the confirmations of chunks of the message's file
+     */
+    private void stored(int[] chunkNos) {
+        List<SentChunk> confirmed = peer.getInternalState().updateStoredConfirmations(message.getFileId(), chunkNos, message.getSenderId());
 
-        peer.getInternalState().updateStoredConfirmation(sentChunk, message.getSenderId());
-        peer.getInternalState().updateStoredConfirmation(savedChunk, message.getSenderId());
+        // a chunk being backed up by this peer leaves the sending window as soon as it's stored enough times
+        for (SentChunk sent : confirmed) {
+            if (sent.getWindow() != null && sent.getPeers().size() >= sent.getReplicationDegree()) {
+                sent.getWindow().acknowledged(sent);
+            }
+        }
     }
 }
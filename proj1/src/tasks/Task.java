@@ -39,7 +39,7 @@ public abstract class Task implements Runnable {
      * @return The sleep time (milliseconds)
      */
     protected int getSleepTime() {
-        int lowerBound = (int) Math.sin((double) peer.getInternalState().calculateOccupation() / peer.getInternalState().getCapacity() * 1.5) * 400;
+        int lowerBound = (int) Math.sin((double) peer.getInternalState().getOccupation() / peer.getInternalState().getCapacity() * 1.5) * 400;
         return ThreadLocalRandom.current().nextInt(lowerBound, 401);
     }
 }